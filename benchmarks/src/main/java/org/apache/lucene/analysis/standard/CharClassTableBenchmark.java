@@ -0,0 +1,204 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the flat <code>char[0x110000]</code> character class lookup that
+ * <code>getNextToken</code> used to do with the two level paged
+ * {@link CustomWordBoundaryCharClassTable}, and measures the resulting
+ * tokenizer throughput, through attributes and in bulk, with the generic and
+ * the specialized scanner engines.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CharClassTableBenchmark {
+
+  @Param({"latin", "tweets", "cjk", "mixed"})
+  public String corpus;
+
+  @Param({"none", "social"})
+  public String mappings;
+
+  @Param({"table", "specialized"})
+  public String engine;
+
+  private String source;
+  private char[] text;
+  private char[] flat;
+  private char[] blocks;
+  private char[] pages;
+  private CustomWordBoundaryCharClassTable table;
+  private CustomWordBoundaryStandardTokenizer tokenizer;
+  private final int[] starts = new int[256];
+  private final int[] lengths = new int[256];
+  private final byte[] types = new byte[256];
+
+  @Setup
+  public void setup() {
+    Map<Character, Character> map = new HashMap<>();
+    if ("social".equals(mappings)) {
+      map.put('#', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+      map.put('@', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+      map.put('+', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+    }
+    table = CustomWordBoundaryCharClassTable.compile(map);
+    blocks = table.blocks();
+    pages = table.pages();
+    flat = new char[Character.MAX_CODE_POINT + 1];
+    for (int cp = 0; cp < flat.length; cp++) {
+      flat[cp] = (char) table.classOf(cp);
+    }
+    source = corpus(corpus, 64 * 1024);
+    text = source.toCharArray();
+    tokenizer = new CustomWordBoundaryStandardTokenizer(table);
+    tokenizer.setSpecializedEngine("specialized".equals(engine));
+  }
+
+  static String corpus(String name, int length) {
+    String alphabet;
+    switch (name) {
+      case "latin":
+        alphabet = "the quick brown fox jumps over the lazy dog, #elastic @search google+ 42 café naïve ";
+        break;
+      case "tweets":
+        alphabet = "RT @elastic: #ES 2.3 is out! google+ users rejoice http://t.co/x1y2 #search #lucene @kimchy lol ";
+        break;
+      case "cjk":
+        alphabet = "日本語のテキストは分かち書きされません。中文文本也是如此。한국어 텍스트 ";
+        break;
+      case "prose":
+        alphabet = "It was the best of times, it was the worst of times, it was the age of wisdom, it was the age of "
+            + "foolishness, it was the epoch of belief, it was the epoch of incredulity; we had everything before us, "
+            + "we had nothing before us. In 1775 there were 3.5 million of them, or so the clerk's ledger said. ";
+        break;
+      case "thai":
+        alphabet = "ภาษาไทยเป็นภาษาที่ไม่มีการเว้นวรรคระหว่างคำ ประโยคจึงยาวมาก และต้องใช้พจนานุกรมตัดคำ ";
+        break;
+      case "emoji":
+        alphabet = "so happy 😀😀 today 👍🏽 #win ❤️ let's go 🎉🎉🎉 family: 👨‍👩‍👧 ok 🇫🇷 done✅ ";
+        break;
+      case "longtokens": {
+        // base64 blobs and long URLs, well beyond the default maximum token length
+        StringBuilder blob = new StringBuilder("data: ");
+        for (int i = 0; i < 600; i++) {
+          blob.append("QUJDREVGR0hJSktMTU5PUFFSU1RVVldYWVphYmNkZWZn".charAt(i % 44));
+        }
+        blob.append(" see https://example.com/");
+        for (int i = 0; i < 40; i++) {
+          blob.append("segment").append(i).append('/');
+        }
+        alphabet = blob.append("?q=1 then ").toString();
+        break;
+      }
+      default:
+        alphabet = "The quick 日本語 fox 한국어 #tags ภาษาไทย émoji 😀 2016-05-01 ";
+        break;
+    }
+    Random random = new Random(0);
+    StringBuilder sb = new StringBuilder(length + alphabet.length());
+    while (sb.length() < length) {
+      int start = random.nextInt(alphabet.length());
+      if (Character.isLowSurrogate(alphabet.charAt(start))) {
+        start--;
+      }
+      sb.append(alphabet, start, alphabet.length());
+    }
+    return sb.toString();
+  }
+
+  @Benchmark
+  public int flatLookup() {
+    char[] buffer = text;
+    char[] cmap = flat;
+    int end = buffer.length;
+    int sum = 0;
+    for (int pos = 0; pos < end; ) {
+      int input = Character.codePointAt(buffer, pos, end);
+      pos += Character.charCount(input);
+      sum += cmap[input];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int pagedLookup() {
+    char[] buffer = text;
+    char[] cmapBlocks = blocks;
+    char[] cmap = pages;
+    int end = buffer.length;
+    int sum = 0;
+    for (int pos = 0; pos < end; ) {
+      int input = Character.codePointAt(buffer, pos, end);
+      pos += Character.charCount(input);
+      sum += cmap[(cmapBlocks[input >> 8] << 8) | (input & 0xFF)];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int tokenize() throws IOException {
+    tokenizer.setReader(new StringReader(source));
+    tokenizer.reset();
+    int count = 0;
+    while (tokenizer.incrementToken()) {
+      count++;
+    }
+    tokenizer.end();
+    tokenizer.close();
+    return count;
+  }
+
+  @Benchmark
+  public int tokenizeBatch() throws IOException {
+    tokenizer.setReader(new StringReader(source));
+    tokenizer.reset();
+    int count = 0;
+    int n;
+    while ((n = tokenizer.incrementTokens(starts, lengths, types)) > 0) {
+      count += n;
+    }
+    tokenizer.end();
+    tokenizer.close();
+    return count;
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the transition table layout generated by JFlex (row map,
+ * <code>int[]</code> transitions and attributes) with the compact
+ * <code>byte[]</code> layout of
+ * {@link CustomWordBoundaryStandardTokenizerImpl#ZZ_DFA}. Chars are
+ * classified up front, so that only the longest match loop is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DFALayoutBenchmark {
+
+  @Param({"latin", "tweets", "cjk", "mixed"})
+  public String corpus;
+
+  private byte[] classes;
+  private final int[] rowMap = CustomWordBoundaryStandardTokenizerTables.ROWMAP;
+  private final int[] trans = CustomWordBoundaryStandardTokenizerTables.TRANS;
+  private final int[] attributes = CustomWordBoundaryStandardTokenizerTables.ATTRIBUTE;
+  private final byte[] dfa = CustomWordBoundaryStandardTokenizerImpl.ZZ_DFA;
+
+  @Setup
+  public void setup() {
+    String source = CharClassTableBenchmark.corpus(corpus, 64 * 1024);
+    CustomWordBoundaryCharClassTable table = CustomWordBoundaryCharClassTable.DEFAULT;
+    int count = source.codePointCount(0, source.length());
+    classes = new byte[count];
+    for (int i = 0, pos = 0; i < count; i++) {
+      int cp = source.codePointAt(pos);
+      pos += Character.charCount(cp);
+      classes[i] = (byte) table.classOf(cp);
+    }
+  }
+
+  @Benchmark
+  public int generated() {
+    byte[] input = classes;
+    int[] rowMapL = rowMap;
+    int[] transL = trans;
+    int[] attrL = attributes;
+    int sum = 0;
+    int start = 0;
+    while (start < input.length) {
+      int state = 0;
+      int action = -1;
+      int marked = start + 1;
+      for (int pos = start; pos < input.length; ) {
+        int next = transL[rowMapL[state] + input[pos++]];
+        if (next == -1) break;
+        state = next;
+        int attr = attrL[state];
+        if ((attr & 1) == 1) {
+          action = state;
+          marked = pos;
+          if ((attr & 8) == 8) break;
+        }
+      }
+      sum += action;
+      start = marked;
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int compact() {
+    byte[] input = classes;
+    byte[] dfaL = dfa;
+    int sum = 0;
+    int start = 0;
+    while (start < input.length) {
+      int state = 0;
+      int action = -1;
+      int marked = start + 1;
+      for (int pos = start; pos < input.length; ) {
+        int next = dfaL[(state << CustomWordBoundaryStandardTokenizerImpl.ZZ_DFA_SHIFT) | input[pos++]];
+        if (next == -1) break;
+        state = next & ((1 << CustomWordBoundaryStandardTokenizerImpl.ZZ_DFA_SHIFT) - 1);
+        if ((next & CustomWordBoundaryStandardTokenizerImpl.ZZ_DFA_ACCEPT) != 0) {
+          action = state;
+          marked = pos;
+          if ((next & CustomWordBoundaryStandardTokenizerImpl.ZZ_DFA_FINAL) != 0) break;
+        }
+      }
+      sum += action;
+      start = marked;
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.core.StopAnalyzer;
+import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the tokenizer followed by the <code>lowercase</code>,
+ * <code>stop</code> and <code>asciifolding</code> filters with
+ * {@link CustomWordBoundaryAnalyzer}, which applies them while the scanner
+ * emits each token.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FusedAnalyzerBenchmark {
+
+  @Param({"latin", "tweets", "mixed"})
+  public String corpus;
+
+  private String source;
+  private Analyzer chain;
+  private Analyzer fused;
+
+  @Setup
+  public void setup() {
+    Map<Character, Character> map = new HashMap<>();
+    map.put('#', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+    map.put('@', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+    map.put('+', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+    final CustomWordBoundaryCharClassTable table = CustomWordBoundaryCharClassTable.compile(map);
+    source = CharClassTableBenchmark.corpus(corpus, 64 * 1024);
+    chain = new Analyzer() {
+      @Override
+      protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(table);
+        TokenStream stream = new LowerCaseFilter(tokenizer);
+        stream = new StopFilter(stream, StopAnalyzer.ENGLISH_STOP_WORDS_SET);
+        stream = new ASCIIFoldingFilter(stream);
+        return new TokenStreamComponents(tokenizer, stream);
+      }
+    };
+    fused = new CustomWordBoundaryAnalyzer(table, StopAnalyzer.ENGLISH_STOP_WORDS_SET, true, true);
+  }
+
+  @Benchmark
+  public int chain() throws IOException {
+    return consume(chain);
+  }
+
+  @Benchmark
+  public int fused() throws IOException {
+    return consume(fused);
+  }
+
+  private int consume(Analyzer analyzer) throws IOException {
+    int count = 0;
+    try (TokenStream stream = analyzer.tokenStream("field", source)) {
+      stream.reset();
+      while (stream.incrementToken()) {
+        count++;
+      }
+      stream.end();
+    }
+    return count;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time from loading a tokenizer class to its first token, the
+ * cost paid by the first document analyzed after a node starts. Each
+ * invocation loads the tokenizer and Lucene in a fresh class loader, so class
+ * initialization (including the scanner tables) is measured every time.
+ * {@link StandardTokenizer} is measured the same way as a reference.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 50)
+@Fork(5)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+  @Param({"org.apache.lucene.analysis.standard.CustomWordBoundaryStandardTokenizer",
+          "org.apache.lucene.analysis.standard.StandardTokenizer"})
+  public String tokenizer;
+
+  @Benchmark
+  public Object firstToken() throws Exception {
+    URL[] classPath = {
+        CustomWordBoundaryStandardTokenizer.class.getProtectionDomain().getCodeSource().getLocation(),
+        StandardTokenizer.class.getProtectionDomain().getCodeSource().getLocation(),
+        Tokenizer.class.getProtectionDomain().getCodeSource().getLocation()
+    };
+    try (URLClassLoader loader = new URLClassLoader(classPath, null)) {
+      Class<?> tokenizerClass = Class.forName(tokenizer, true, loader);
+      Object instance = tokenizerClass.newInstance();
+      tokenizerClass.getMethod("setReader", Reader.class).invoke(instance, new StringReader("first token"));
+      tokenizerClass.getMethod("reset").invoke(instance);
+      return tokenizerClass.getMethod("incrementToken").invoke(instance);
+    }
+  }
+}
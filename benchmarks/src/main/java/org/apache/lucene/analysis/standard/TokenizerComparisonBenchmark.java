@@ -0,0 +1,149 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of the tokenizer with Lucene's
+ * {@link StandardTokenizer} and {@link UAX29URLEmailTokenizer}, on corpora
+ * ranging from tweets to pathological long tokens, and with mapping sets of
+ * increasing size (the Lucene tokenizers ignore the mappings).
+ * <p>
+ * Besides documents per second, the <code>tokens</code> counter reports tokens
+ * per second. Run with <code>-bm avgt -tu ns</code> to get nanoseconds per
+ * token instead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class TokenizerComparisonBenchmark {
+
+  @Param({"customwb", "standard", "uax29urlemail"})
+  public String tokenizer;
+
+  @Param({"tweets", "prose", "cjk", "thai", "emoji", "longtokens"})
+  public String corpus;
+
+  @Param({"empty", "small", "large"})
+  public String mappings;
+
+  private String source;
+  private Tokenizer stream;
+
+  /** counts the tokens of each iteration */
+  @AuxCounters
+  @State(Scope.Thread)
+  public static class Tokens {
+    public long tokens;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+      tokens = 0;
+    }
+  }
+
+  @Setup
+  public void setup() {
+    source = CharClassTableBenchmark.corpus(corpus, 64 * 1024);
+    switch (tokenizer) {
+      case "customwb":
+        stream = new CustomWordBoundaryStandardTokenizer(mappings(mappings).build());
+        break;
+      case "standard":
+        stream = new StandardTokenizer();
+        break;
+      case "uax29urlemail":
+        stream = new UAX29URLEmailTokenizer();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown tokenizer [" + tokenizer + "]");
+    }
+  }
+
+  /**
+   * Returns the named mapping set: none, the three chars of tweets, or
+   * thousands of code points, ranges, categories and sequences.
+   */
+  static CustomWordBoundaryCharClassTable.Builder mappings(String name) {
+    CustomWordBoundaryCharClassTable.Builder builder = new CustomWordBoundaryCharClassTable.Builder();
+    switch (name) {
+      case "empty":
+        break;
+      case "small":
+        builder.map('#', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+        builder.map('@', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+        builder.map('+', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+        break;
+      case "large":
+        builder.mapCategory("Sc", CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+        builder.mapCategory("Pd", CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_MID_LETTER);
+        builder.mapRange(0x1F300, 0x1F5FF, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+        // every other code point of the CJK block, so that no page is shared
+        for (int codePoint = 0x4E00; codePoint < 0x9FFF; codePoint += 2) {
+          builder.map(codePoint, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+        }
+        builder.map('#', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+        builder.map('@', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+        builder.map('+', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+        builder.sequence("C++", CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+        builder.sequence("C#", CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+        builder.sequence(".NET", CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown mappings [" + name + "]");
+    }
+    return builder;
+  }
+
+  @Benchmark
+  public int tokenize(Tokens tokens) throws IOException {
+    stream.setReader(new StringReader(source));
+    stream.reset();
+    int count = 0;
+    while (stream.incrementToken()) {
+      count++;
+    }
+    stream.end();
+    stream.close();
+    tokens.tokens += count;
+    return count;
+  }
+}
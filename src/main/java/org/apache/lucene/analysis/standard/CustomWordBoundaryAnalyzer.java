@@ -0,0 +1,106 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.Reader;
+
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.analysis.util.StopwordAnalyzerBase;
+
+/**
+ * Filters {@link CustomWordBoundaryStandardTokenizer} with lowercasing, stop
+ * words removal and optionally ascii folding, all fused into the tokenizer.
+ * <p>
+ * The output is the same as chaining {@link org.apache.lucene.analysis.core.LowerCaseFilter},
+ * {@link org.apache.lucene.analysis.core.StopFilter} and
+ * {@link org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter} after the tokenizer,
+ * but each token is lowercased while it is copied out of the scanner buffer,
+ * and stop words are checked and tokens folded without any further pass.
+ */
+public final class CustomWordBoundaryAnalyzer extends StopwordAnalyzerBase {
+
+  private final CustomWordBoundaryCharClassTable charClasses;
+  private final boolean lowerCase;
+  private final boolean asciiFolding;
+
+  private int maxTokenLength = StandardAnalyzer.DEFAULT_MAX_TOKEN_LENGTH;
+
+  private CustomWordBoundaryScannerPool scannerPool;
+
+  /**
+   * Builds an analyzer with the given character classes and stop words.
+   *
+   * @param charClasses the character class table of the tokenizer
+   * @param stopWords stop words, removed after lowercasing
+   * @param lowerCase whether to lowercase tokens
+   * @param asciiFolding whether to fold tokens to ASCII, after stop words removal
+   */
+  public CustomWordBoundaryAnalyzer(CustomWordBoundaryCharClassTable charClasses, CharArraySet stopWords,
+                                    boolean lowerCase, boolean asciiFolding) {
+    super(stopWords);
+    this.charClasses = charClasses;
+    this.lowerCase = lowerCase;
+    this.asciiFolding = asciiFolding;
+  }
+
+  /**
+   * Set maximum allowed token length.  If a token is seen
+   * that exceeds this length then it is split at the limit,
+   * as by {@link StandardAnalyzer}: this analyzer never discards
+   * long tokens (see {@link CustomWordBoundaryStandardTokenizer#setDiscardLongTokens(boolean)}).
+   * This setting only takes effect the next time tokenStream is called.
+   */
+  public void setMaxTokenLength(int length) {
+    maxTokenLength = length;
+  }
+
+  /**
+   * @see #setMaxTokenLength
+   */
+  public int getMaxTokenLength() {
+    return maxTokenLength;
+  }
+
+  /**
+   * Borrows the scanners of the tokenizers of this analyzer from the given
+   * pool, see {@link CustomWordBoundaryStandardTokenizer#setScannerPool(CustomWordBoundaryScannerPool)}.
+   * This setting only takes effect for the tokenizers created afterwards.
+   */
+  public void setScannerPool(CustomWordBoundaryScannerPool scannerPool) {
+    this.scannerPool = scannerPool;
+  }
+
+  @Override
+  protected TokenStreamComponents createComponents(final String fieldName) {
+    final CustomWordBoundaryStandardTokenizer src = new CustomWordBoundaryStandardTokenizer(charClasses);
+    src.setMaxTokenLength(maxTokenLength);
+    src.setLowerCase(lowerCase);
+    src.setStopWords(stopwords);
+    src.setASCIIFolding(asciiFolding);
+    src.setScannerPool(scannerPool);
+    return new TokenStreamComponents(src) {
+      @Override
+      protected void setReader(final Reader reader) {
+        src.setMaxTokenLength(CustomWordBoundaryAnalyzer.this.maxTokenLength);
+        super.setReader(reader);
+      }
+    };
+  }
+}
@@ -0,0 +1,683 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable character to word boundary class translation table used by
+ * {@link CustomWordBoundaryStandardTokenizerImpl}.
+ * <p>
+ * A table is compiled once from a set of character mapping overrides and is
+ * then shared, read-only, by every scanner created for that mapping set.
+ * Creating a tokenizer therefore never copies the translation table.
+ * <p>
+ * The table is stored in two levels: a block index with one entry per
+ * {@value #PAGE_SIZE} code points, pointing to deduplicated pages of
+ * {@value #PAGE_SIZE} classes. Almost all of the supplementary planes share
+ * the same few pages, so the whole default table fits in a few tens of
+ * kilobytes instead of a flat <code>char[0x110000]</code>. Compiling overrides
+ * only adds the pages they touch, so that overrides anywhere in the code space,
+ * supplementary planes included, stay cheap even by the thousands: the
+ * scanner looks up whole code points, surrogate pairs being combined before
+ * the lookup. Ranges of code points, and whole Unicode general categories,
+ * are kept as intervals until they are compiled, and fill their pages
+ * directly.
+ * <p>
+ * A table also holds the multi-character sequences (e.g. "C++") that the
+ * scanner keeps as single tokens, whatever the classes of their characters.
+ * <p>
+ * Tables are built from a {@link Builder}, whose canonical form (and
+ * {@link Builder#fingerprint() fingerprint}) only depends on the effective
+ * overrides, so that identical mapping sets can be detected and share a
+ * single table.
+ */
+public final class CustomWordBoundaryCharClassTable {
+
+  /** number of bits of a code point addressing a char inside its page */
+  static final int PAGE_SHIFT = 8;
+
+  /** number of code points covered by each page */
+  public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+  /** mask extracting the position of a code point inside its page */
+  static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  /** number of blocks covering the whole Unicode code space */
+  static final int BLOCK_COUNT = (Character.MAX_CODE_POINT + 1) >> PAGE_SHIFT;
+
+  /** The default UAX#29 translation table, without any override */
+  public static final CustomWordBoundaryCharClassTable DEFAULT = new CustomWordBoundaryCharClassTable(
+      CustomWordBoundaryStandardTokenizerTables.CMAP_BLOCKS, CustomWordBoundaryStandardTokenizerTables.CMAP_PAGES,
+      new Builder().fingerprint());
+
+  /** block number to page number */
+  private final char[] blocks;
+
+  /** deduplicated pages, {@link #PAGE_SIZE} classes each */
+  private final char[] pages;
+
+  /** classes of the Latin-1 code points, for the scanner fast path */
+  private final byte[] latin1;
+
+  /** sequences kept as single tokens, or <code>null</code> if there is none */
+  private final CustomWordBoundarySequences sequences;
+
+  /** transitions of the scanner on Latin-1 chars, built on first use, see {@link #latin1Transitions()} */
+  private volatile byte[] latin1Transitions;
+
+  /** fingerprint of the overrides this table was compiled from */
+  private final String fingerprint;
+
+  private CustomWordBoundaryCharClassTable(char[] blocks, char[] pages, String fingerprint) {
+    this(blocks, pages, null, fingerprint);
+  }
+
+  CustomWordBoundaryCharClassTable(char[] blocks, char[] pages, CustomWordBoundarySequences sequences,
+                                   String fingerprint) {
+    this.blocks = blocks;
+    this.pages = pages;
+    this.sequences = sequences;
+    this.fingerprint = fingerprint;
+    this.latin1 = new byte[PAGE_SIZE];
+    for (int c = 0; c < PAGE_SIZE; c++) {
+      latin1[c] = (byte) classOf(c);
+    }
+  }
+
+  /**
+   * Compiles a translation table from character mapping overrides.
+   *
+   * @param mappings
+   *          custom override character translation mappings
+   * @return {@link #DEFAULT} if there is no override, a new table otherwise
+   */
+  public static CustomWordBoundaryCharClassTable compile(Map<Character, Character> mappings) {
+    Builder builder = new Builder();
+    for (Entry<Character, Character> entry : mappings.entrySet()) {
+      builder.map(entry.getKey(), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Compiles a translation table from code point mapping overrides. Unlike
+   * {@link #compile(Map)}, supplementary code points can be overridden too.
+   *
+   * @param mappings
+   *          custom override code point translation mappings
+   * @return {@link #DEFAULT} if there is no override, a new table otherwise
+   */
+  public static CustomWordBoundaryCharClassTable compileCodePoints(Map<Integer, Character> mappings) {
+    Builder builder = new Builder();
+    for (Entry<Integer, Character> entry : mappings.entrySet()) {
+      builder.map(entry.getKey(), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the fingerprint of the overrides this table was compiled from.
+   * Tables compiled from equivalent overrides have the same fingerprint.
+   */
+  public String fingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Returns the word boundary class of the given code point.
+   */
+  public int classOf(int codePoint) {
+    return pages[(blocks[codePoint >> PAGE_SHIFT] << PAGE_SHIFT) | (codePoint & PAGE_MASK)];
+  }
+
+  /**
+   * Returns the number of distinct pages held by this table.
+   */
+  public int pageCount() {
+    return pages.length >> PAGE_SHIFT;
+  }
+
+  /**
+   * Returns the approximate heap used by this table, in bytes.
+   */
+  public long ramBytesUsed() {
+    byte[] transitions = latin1Transitions;
+    return 2L * (blocks.length + pages.length) + latin1.length + (sequences == null ? 0 : sequences.ramBytesUsed())
+        + (transitions == null ? 0 : transitions.length);
+  }
+
+  /** the block index, must not be modified */
+  char[] blocks() {
+    return blocks;
+  }
+
+  /** the deduplicated pages, must not be modified */
+  char[] pages() {
+    return pages;
+  }
+
+  /** the classes of code points below 0x100, must not be modified */
+  byte[] latin1() {
+    return latin1;
+  }
+
+  /**
+   * the transitions of the scanner specialized for this table on Latin-1
+   * chars, built on first use and then shared, must not be modified
+   */
+  byte[] latin1Transitions() {
+    byte[] transitions = latin1Transitions;
+    if (transitions == null) {
+      // racy but idempotent: concurrent callers build equal tables
+      latin1Transitions = transitions = CustomWordBoundaryStandardTokenizerImpl.zzPackLatin1DFA(latin1);
+    }
+    return transitions;
+  }
+
+  /** the sequences kept as single tokens, or <code>null</code> */
+  CustomWordBoundarySequences sequences() {
+    return sequences;
+  }
+
+  /** the classes code points can be mapped to */
+  private static final char[] MAPPABLE_CLASSES = {
+    CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_BREAK, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER,
+    CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_NUMERIC, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_MID_LETTER,
+    CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_MID_NUMBER, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_MID_NUMBER_LETTER,
+    CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_SINGLE_QUOTE,
+    CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_DOUBLE_QUOTE
+  };
+
+  /**
+   * Returns the fingerprint of the given pages and sequences, computed from
+   * the code points whose class differs from {@link #DEFAULT}, so that it
+   * does not depend on the overrides the pages were compiled from. Overrides
+   * of a code point to its default class do not count, unlike in
+   * {@link Builder#fingerprint()}.
+   *
+   * @throws IllegalArgumentException if a code point is mapped to a class
+   *         that is not a word boundary class, or a sequence to a type that
+   *         is neither a word nor a number
+   */
+  static String contentFingerprint(char[] blocks, char[] pages, SortedMap<String, Integer> sequences) {
+    Builder overrides = new Builder();
+    int first = -1;
+    char wbClass = 0;
+    for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT + 1; codePoint++) {
+      char c = 0;
+      boolean overridden = false;
+      if (codePoint <= Character.MAX_CODE_POINT) {
+        c = pages[(blocks[codePoint >> PAGE_SHIFT] << PAGE_SHIFT) | (codePoint & PAGE_MASK)];
+        overridden = c != DEFAULT.classOf(codePoint);
+        if (overridden && isMappable(c) == false) {
+          throw new IllegalArgumentException("Invalid word boundary class [" + (int) c + "] for code point [" + codePoint + "]");
+        }
+      }
+      if (first >= 0 && (overridden == false || c != wbClass)) {
+        overrides.mapRange(first, codePoint - 1, wbClass);
+        first = -1;
+      }
+      if (overridden && first < 0) {
+        first = codePoint;
+        wbClass = c;
+      }
+    }
+    for (Entry<String, Integer> sequence : sequences.entrySet()) {
+      int type = sequence.getValue();
+      if (type == CustomWordBoundaryStandardTokenizerImpl.WORD_TYPE) {
+        overrides.sequence(sequence.getKey(), CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+      } else if (type == CustomWordBoundaryStandardTokenizerImpl.NUMERIC_TYPE) {
+        overrides.sequence(sequence.getKey(), CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_NUMERIC);
+      } else {
+        throw new IllegalArgumentException("Invalid token type [" + type + "] for sequence [" + sequence.getKey() + "]");
+      }
+    }
+    return overrides.fingerprint();
+  }
+
+  private static boolean isMappable(char wbClass) {
+    for (char mappable : MAPPABLE_CLASSES) {
+      if (wbClass == mappable) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Unpacks the compressed (run-length encoded) character translation table
+   * generated by JFlex straight into deduplicated pages. Only used to generate
+   * the precomputed {@link CustomWordBoundaryStandardTokenizerTables}.
+   *
+   * @param packed   the packed character translation table
+   * @return         the unpacked character translation table
+   */
+  static CustomWordBoundaryCharClassTable unpack(String packed) {
+    Pager pager = new Pager();
+    char[] page = new char[PAGE_SIZE];
+    int i = 0;  /* index in packed string  */
+    int j = 0;  /* index in unpacked table */
+    int l = packed.length();
+    while (i < l) {
+      int  count = packed.charAt(i++);
+      char value = packed.charAt(i++);
+      do {
+        page[j & PAGE_MASK] = value;
+        if ((++j & PAGE_MASK) == 0) {
+          pager.blocks[(j - 1) >> PAGE_SHIFT] = pager.intern(page);
+        }
+      } while (--count > 0);
+    }
+    return pager.build(null, new Builder().fingerprint());
+  }
+
+  /**
+   * Collects character class overrides to compile into a table.
+   * <p>
+   * When the same code point (or sequence) is mapped more than once, the last
+   * mapping wins.
+   * Two builders are equal if they result in the same effective overrides,
+   * whatever the order they were added in.
+   */
+  public static final class Builder {
+    /** overrides in insertion order, each one stored as three ints: first code point, last code point, class */
+    private int[] entries = new int[3 * 16];
+    private int size;
+    /** sorted, disjoint and coalesced overrides, stored as the entries, computed lazily */
+    private int[] canonical;
+    /** sequences kept as single tokens, with their token types */
+    private final SortedMap<String, Integer> sequences = new TreeMap<>();
+
+    /**
+     * Overrides the word boundary class of a code point.
+     *
+     * @param codePoint the code point to map
+     * @param wbClass one of the <code>WB_CLASS_*</code> constants of {@link CustomWordBoundaryStandardTokenizerImpl}
+     */
+    public Builder map(int codePoint, char wbClass) {
+      return mapRange(codePoint, codePoint, wbClass);
+    }
+
+    /**
+     * Overrides the word boundary class of a range of code points.
+     *
+     * @param first the first code point to map
+     * @param last the last code point to map, inclusive
+     * @param wbClass one of the <code>WB_CLASS_*</code> constants of {@link CustomWordBoundaryStandardTokenizerImpl}
+     */
+    public Builder mapRange(int first, int last, char wbClass) {
+      if (first < 0 || first > Character.MAX_CODE_POINT) {
+        throw new IllegalArgumentException("Invalid code point [" + first + "]");
+      }
+      if (last < first || last > Character.MAX_CODE_POINT) {
+        throw new IllegalArgumentException("Invalid code point [" + last + "]");
+      }
+      if (wbClass > 0xFF) {
+        throw new IllegalArgumentException("Invalid word boundary class [" + (int) wbClass + "]");
+      }
+      if (3 * size == entries.length) {
+        entries = Arrays.copyOf(entries, entries.length << 1);
+      }
+      entries[3 * size] = first;
+      entries[3 * size + 1] = last;
+      entries[3 * size + 2] = wbClass;
+      size++;
+      canonical = null;
+      return this;
+    }
+
+    /**
+     * Overrides the word boundary class of all the code points of a Unicode
+     * general category, as known by {@link Character#getType(int)}.
+     *
+     * @param category a general category (e.g. "Sc"), or the first letter of
+     *                 several ones (e.g. "P" for all punctuation)
+     * @param wbClass one of the <code>WB_CLASS_*</code> constants of {@link CustomWordBoundaryStandardTokenizerImpl}
+     */
+    public Builder mapCategory(String category, char wbClass) {
+      boolean[] types = new boolean[Categories.NAMES.length];
+      boolean known = false;
+      for (int type = 0; type < types.length; type++) {
+        String name = Categories.NAMES[type];
+        if (name != null && (name.equals(category) || (category.length() == 1 && name.charAt(0) == category.charAt(0)))) {
+          types[type] = known = true;
+        }
+      }
+      if (known == false) {
+        throw new IllegalArgumentException("Unknown general category [" + category + "]");
+      }
+      int[] runs = Categories.runs();
+      for (int i = 0; i < runs.length; i += 2) {
+        if (types[runs[i + 1]]) {
+          int last = i + 2 < runs.length ? runs[i + 2] - 1 : Character.MAX_CODE_POINT;
+          mapRange(runs[i], last, wbClass);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Keeps a sequence of at least two chars (e.g. "C++") as a single token.
+     * The sequence is only matched where a token may start, and only if it is
+     * not directly followed by a char that would continue a word.
+     *
+     * @param sequence the sequence, matched case sensitively
+     * @param wbClass {@link CustomWordBoundaryStandardTokenizerImpl#WB_CLASS_LETTER} for a word token,
+     *                or {@link CustomWordBoundaryStandardTokenizerImpl#WB_CLASS_NUMERIC} for a numeric one
+     */
+    public Builder sequence(String sequence, char wbClass) {
+      if (sequence.length() < 2) {
+        throw new IllegalArgumentException("Invalid sequence [" + sequence + "]");
+      }
+      int type;
+      if (wbClass == CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER) {
+        type = CustomWordBoundaryStandardTokenizerImpl.WORD_TYPE;
+      } else if (wbClass == CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_NUMERIC) {
+        type = CustomWordBoundaryStandardTokenizerImpl.NUMERIC_TYPE;
+      } else {
+        throw new IllegalArgumentException("Invalid word boundary class [" + (int) wbClass + "] for a sequence");
+      }
+      sequences.put(sequence, type);
+      return this;
+    }
+
+    /** the sequences kept as single tokens, with their token types, must not be modified */
+    SortedMap<String, Integer> sequences() {
+      return sequences;
+    }
+
+    /**
+     * Returns <code>true</code> if no override has been added.
+     */
+    public boolean isEmpty() {
+      return size == 0 && sequences.isEmpty();
+    }
+
+    private int[] canonical() {
+      if (canonical == null) {
+        boolean codePoints = true;
+        for (int i = 0; i < size && codePoints; i++) {
+          codePoints = entries[3 * i] == entries[3 * i + 1];
+        }
+        int[] disjoint = codePoints ? disjointCodePoints() : disjointRanges();
+        // coalesce adjacent overrides to the same class
+        int count = 0;
+        for (int i = 0; i < disjoint.length; i += 3) {
+          if (count > 0 && disjoint[count - 2] == disjoint[i] - 1 && disjoint[count - 1] == disjoint[i + 2]) {
+            disjoint[count - 2] = disjoint[i + 1];
+          } else {
+            disjoint[count++] = disjoint[i];
+            disjoint[count++] = disjoint[i + 1];
+            disjoint[count++] = disjoint[i + 2];
+          }
+        }
+        canonical = Arrays.copyOf(disjoint, count);
+      }
+      return canonical;
+    }
+
+    /** sorts overrides of single code points, keeping the last override of each one */
+    private int[] disjointCodePoints() {
+      // stable sort on code point, keeping track of insertion order
+      long[] sorted = new long[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = ((long) entries[3 * i] << 32) | i;
+      }
+      Arrays.sort(sorted);
+      int[] result = new int[3 * size];
+      int count = 0;
+      for (int i = 0; i < size; i++) {
+        if (i + 1 < size && (sorted[i + 1] >>> 32) == (sorted[i] >>> 32)) {
+          continue; // overridden by a later mapping
+        }
+        System.arraycopy(entries, 3 * (int) sorted[i], result, count, 3);
+        count += 3;
+      }
+      return Arrays.copyOf(result, count);
+    }
+
+    /** splits overlapping ranges into disjoint ones, each with the class of the last override covering it */
+    private int[] disjointRanges() {
+      // sweep the bounds of the overrides in code point order, keeping the
+      // overrides covering the current code point in a heap where the last
+      // added one, which wins, is on top
+      long[] firsts = new long[size];
+      long[] ends = new long[size];
+      for (int i = 0; i < size; i++) {
+        firsts[i] = ((long) entries[3 * i] << 32) | i;
+        ends[i] = ((long) (entries[3 * i + 1] + 1) << 32) | i;
+      }
+      Arrays.sort(firsts);
+      Arrays.sort(ends);
+      boolean[] ended = new boolean[size];
+      int[] heap = new int[size];
+      int heapSize = 0;
+      int[] result = new int[3 * 16];
+      int count = 0;
+      int f = 0;
+      int e = 0;
+      while (e < size) {
+        int codePoint = (int) ((f < size ? Math.min(firsts[f], ends[e]) : ends[e]) >>> 32);
+        for (; f < size && (int) (firsts[f] >>> 32) == codePoint; f++) {
+          // sift up
+          int i = (int) firsts[f];
+          int pos = heapSize++;
+          while (pos > 0 && heap[(pos - 1) >> 1] < i) {
+            heap[pos] = heap[(pos - 1) >> 1];
+            pos = (pos - 1) >> 1;
+          }
+          heap[pos] = i;
+        }
+        for (; e < size && (int) (ends[e] >>> 32) == codePoint; e++) {
+          ended[(int) ends[e]] = true;
+        }
+        while (heapSize > 0 && ended[heap[0]]) {
+          // sift down
+          int i = heap[--heapSize];
+          int pos = 0;
+          while (2 * pos + 1 < heapSize) {
+            int child = 2 * pos + 1;
+            if (child + 1 < heapSize && heap[child + 1] > heap[child]) {
+              child++;
+            }
+            if (heap[child] < i) {
+              break;
+            }
+            heap[pos] = heap[child];
+            pos = child;
+          }
+          heap[pos] = i;
+        }
+        if (heapSize > 0) {
+          if (count == result.length) {
+            result = Arrays.copyOf(result, count << 1);
+          }
+          result[count++] = codePoint;
+          result[count++] = (int) ((f < size ? Math.min(firsts[f], ends[e]) : ends[e]) >>> 32) - 1;
+          result[count++] = entries[3 * heap[0] + 2];
+        }
+      }
+      return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Returns a fingerprint of the effective overrides.
+     */
+    public String fingerprint() {
+      long hash = 0xcbf29ce484222325L; // FNV-1a
+      for (int value : canonical()) {
+        hash = (hash ^ value) * 0x100000001b3L;
+      }
+      for (Entry<String, Integer> sequence : sequences.entrySet()) {
+        for (int i = 0; i < sequence.getKey().length(); i++) {
+          hash = (hash ^ sequence.getKey().charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ (0x10000 | sequence.getValue())) * 0x100000001b3L;
+      }
+      return String.format(Locale.ROOT, "%016x", hash);
+    }
+
+    /**
+     * Compiles the overrides into a new table.
+     *
+     * @return {@link #DEFAULT} if there is no override, a new table otherwise
+     */
+    public CustomWordBoundaryCharClassTable build() {
+      if (isEmpty()) {
+        return DEFAULT;
+      }
+      CustomWordBoundarySequences trie = sequences.isEmpty() ? null : new CustomWordBoundarySequences(sequences);
+      if (size == 0) {
+        return new CustomWordBoundaryCharClassTable(DEFAULT.blocks, DEFAULT.pages, trie, fingerprint());
+      }
+      Pager pager = new Pager(DEFAULT);
+      int[] overrides = canonical();
+      for (int i = 0; i < overrides.length; i += 3) {
+        pager.fill(overrides[i], overrides[i + 1], (char) overrides[i + 2]);
+      }
+      return pager.build(trie, fingerprint());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Builder && Arrays.equals(canonical(), ((Builder) obj).canonical())
+          && sequences.equals(((Builder) obj).sequences);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Arrays.hashCode(canonical()) + sequences.hashCode();
+    }
+  }
+
+  /**
+   * The Unicode general categories, computed on first use.
+   */
+  private static final class Categories {
+    /** abbreviations of the general categories, indexed by their {@link Character#getType(int)} value */
+    static final String[] NAMES = {
+        "Cn", "Lu", "Ll", "Lt", "Lm", "Lo", "Mn", "Me", "Mc", "Nd", "Nl", "No", "Zs", "Zl", "Zp", "Cc",
+        "Cf", null, "Co", "Cs", "Pd", "Ps", "Pe", "Pc", "Po", "Sm", "Sc", "Sk", "So", "Pi", "Pf"
+    };
+
+    private static int[] runs;
+
+    /** returns the first code point of each run of code points of the same category, followed by that category */
+    static synchronized int[] runs() {
+      if (runs == null) {
+        int[] result = new int[2 * 1024];
+        int count = 0;
+        int previous = -1;
+        for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+          int type = Character.getType(codePoint);
+          if (type != previous) {
+            if (count == result.length) {
+              result = Arrays.copyOf(result, count << 1);
+            }
+            result[count++] = codePoint;
+            result[count++] = type;
+            previous = type;
+          }
+        }
+        runs = Arrays.copyOf(result, count);
+      }
+      return runs;
+    }
+  }
+
+  /**
+   * Builds the two level representation of a table, sharing identical pages.
+   */
+  private static final class Pager {
+    private final char[] blocks;
+    private char[] pages;
+    private int pageCount;
+    private final Map<String, Character> pageIds = new HashMap<>();
+    /** blocks whose page has been copied for modification, and not interned yet */
+    private char[][] dirty;
+
+    Pager() {
+      blocks = new char[BLOCK_COUNT];
+      pages = new char[16 * PAGE_SIZE];
+    }
+
+    /** starts from an existing table, whose pages are all reused (copied on first addition) */
+    Pager(CustomWordBoundaryCharClassTable base) {
+      blocks = Arrays.copyOf(base.blocks, base.blocks.length);
+      pages = base.pages;
+      pageCount = base.pageCount();
+      for (int p = 0; p < pageCount; p++) {
+        pageIds.put(new String(pages, p << PAGE_SHIFT, PAGE_SIZE), (char) p);
+      }
+    }
+
+    /** overrides the class of a range of code points */
+    void fill(int first, int last, char wbClass) {
+      if (dirty == null) {
+        dirty = new char[BLOCK_COUNT][];
+      }
+      for (int block = first >> PAGE_SHIFT; block <= last >> PAGE_SHIFT; block++) {
+        char[] page = dirty[block];
+        if (page == null) {
+          int offset = blocks[block] << PAGE_SHIFT;
+          page = dirty[block] = Arrays.copyOfRange(pages, offset, offset + PAGE_SIZE);
+        }
+        int from = Math.max(first, block << PAGE_SHIFT) & PAGE_MASK;
+        int to = Math.min(last, (block << PAGE_SHIFT) | PAGE_MASK) & PAGE_MASK;
+        Arrays.fill(page, from, to + 1, wbClass);
+      }
+    }
+
+    /** returns the number of an identical page, adding it if needed */
+    char intern(char[] page) {
+      String key = new String(page);
+      Character id = pageIds.get(key);
+      if (id == null) {
+        if ((pageCount + 1) << PAGE_SHIFT > pages.length) {
+          pages = Arrays.copyOf(pages, Math.max(pages.length << 1, (pageCount + 1) << PAGE_SHIFT));
+        }
+        System.arraycopy(page, 0, pages, pageCount << PAGE_SHIFT, PAGE_SIZE);
+        id = (char) pageCount++;
+        pageIds.put(key, id);
+      }
+      return id;
+    }
+
+    CustomWordBoundaryCharClassTable build(CustomWordBoundarySequences sequences, String fingerprint) {
+      if (dirty != null) {
+        for (int block = 0; block < BLOCK_COUNT; block++) {
+          if (dirty[block] != null) {
+            blocks[block] = intern(dirty[block]);
+          }
+        }
+        dirty = null;
+      }
+      return new CustomWordBoundaryCharClassTable(blocks, Arrays.copyOf(pages, pageCount << PAGE_SHIFT), sequences,
+          fingerprint);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Compiled character class tables stored in a file, so that large mapping
+ * sets are compiled once, offline, rather than by every node opening an
+ * index.
+ * <p>
+ * A file holds the pages of a table as they are used by the scanner, and is
+ * memory mapped read-only to be loaded: the pages are copied straight from
+ * the page cache, which is shared by all the JVMs of a host, and the heap
+ * used by a loaded table only depends on its number of distinct pages, not on
+ * the number of mappings it was compiled from.
+ * <p>
+ * File layout (big endian): magic, version, checksum of the default table of
+ * the scanner the file was compiled for, payload length in bytes, then the
+ * payload and its CRC32. The payload holds the length and chars of the
+ * fingerprint, the lengths of the block index and of the pages, the number of
+ * sequences, the block index and the pages, then the token type, length and
+ * chars of each sequence.
+ * <p>
+ * The CRC32 only detects accidental corruption. The fingerprint, which
+ * identifies the table in logs and statistics, is computed from the classes
+ * and sequences of the table (see
+ * {@link CustomWordBoundaryCharClassTable#contentFingerprint}) and checked
+ * again when the file is read, together with the classes and token types it
+ * holds, so a crafted file cannot pass for another table.
+ */
+public final class CustomWordBoundaryCharClassTableFile {
+
+  private static final int MAGIC = 0x4357424d; // CWBM
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 4 * 4;
+
+  private CustomWordBoundaryCharClassTableFile() {}
+
+  /**
+   * Compiles the given mappings and writes their table.
+   *
+   * @throws IllegalArgumentException if a code point is mapped to a class
+   *         that is not a word boundary class
+   */
+  public static void write(CustomWordBoundaryCharClassTable.Builder mappings, OutputStream out) throws IOException {
+    CustomWordBoundaryCharClassTable table = mappings.build();
+    SortedMap<String, Integer> sequences = mappings.sequences();
+    String fingerprint = CustomWordBoundaryCharClassTable.contentFingerprint(table.blocks(), table.pages(), sequences);
+
+    int length = 4 + 2 * fingerprint.length() + 3 * 4 + 2 * (table.blocks().length + table.pages().length);
+    for (String sequence : sequences.keySet()) {
+      length += 2 * 4 + 2 * sequence.length();
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length + 4);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(SCANNER_CHECKSUM).putInt(length);
+    buffer.putInt(fingerprint.length());
+    for (int i = 0; i < fingerprint.length(); i++) {
+      buffer.putChar(fingerprint.charAt(i));
+    }
+    buffer.putInt(table.blocks().length).putInt(table.pages().length).putInt(sequences.size());
+    buffer.asCharBuffer().put(table.blocks());
+    buffer.position(buffer.position() + 2 * table.blocks().length);
+    buffer.asCharBuffer().put(table.pages());
+    buffer.position(buffer.position() + 2 * table.pages().length);
+    for (Map.Entry<String, Integer> sequence : sequences.entrySet()) {
+      buffer.putInt(sequence.getValue()).putInt(sequence.getKey().length());
+      for (int i = 0; i < sequence.getKey().length(); i++) {
+        buffer.putChar(sequence.getKey().charAt(i));
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), HEADER_SIZE, length);
+    buffer.putInt((int) crc.getValue());
+    out.write(buffer.array());
+  }
+
+  /**
+   * Compiles the given mappings and writes their table to the given file.
+   */
+  public static void write(CustomWordBoundaryCharClassTable.Builder mappings, Path file) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      write(mappings, out);
+    }
+  }
+
+  /**
+   * Loads a table from the given file, after checking that it was compiled
+   * for this scanner and that it is not corrupted.
+   *
+   * @throws IOException if the file cannot be read, or is not a valid table
+   */
+  public static CustomWordBoundaryCharClassTable read(Path file) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE + 4 || channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Invalid character class table file [" + file + "]: unexpected size " + channel.size());
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Invalid character class table file [" + file + "]: bad magic");
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported character class table file [" + file + "]: version " + version
+          + ", expected " + VERSION);
+    }
+    if (buffer.getInt() != SCANNER_CHECKSUM) {
+      throw new IOException("Character class table file [" + file + "] was compiled for another version of the scanner");
+    }
+    int length = buffer.getInt();
+    if (length < 0 || buffer.capacity() != HEADER_SIZE + length + 4) {
+      throw new IOException("Invalid character class table file [" + file + "]: truncated");
+    }
+    CRC32 crc = new CRC32();
+    ByteBuffer payload = buffer.duplicate();
+    byte[] chunk = new byte[8192];
+    for (int remaining = length; remaining > 0; remaining -= chunk.length) {
+      int n = Math.min(remaining, chunk.length);
+      payload.get(chunk, 0, n);
+      crc.update(chunk, 0, n);
+    }
+    if ((int) crc.getValue() != buffer.getInt(HEADER_SIZE + length)) {
+      throw new IOException("Corrupted character class table file [" + file + "]: checksum mismatch");
+    }
+
+    try {
+      char[] fingerprint = new char[buffer.getInt()];
+      buffer.asCharBuffer().get(fingerprint);
+      buffer.position(buffer.position() + 2 * fingerprint.length);
+      char[] blocks = new char[buffer.getInt()];
+      char[] pages = new char[buffer.getInt()];
+      int sequenceCount = buffer.getInt();
+      if (blocks.length != CustomWordBoundaryCharClassTable.BLOCK_COUNT
+          || (pages.length & CustomWordBoundaryCharClassTable.PAGE_MASK) != 0) {
+        throw new IOException("Invalid character class table file [" + file + "]: unexpected table size");
+      }
+      buffer.asCharBuffer().get(blocks).get(pages);
+      buffer.position(buffer.position() + 2 * (blocks.length + pages.length));
+      for (char page : blocks) {
+        if (page >= pages.length >> CustomWordBoundaryCharClassTable.PAGE_SHIFT) {
+          throw new IOException("Invalid character class table file [" + file + "]: unknown page " + (int) page);
+        }
+      }
+      SortedMap<String, Integer> sequences = new TreeMap<>();
+      for (int i = 0; i < sequenceCount; i++) {
+        int type = buffer.getInt();
+        char[] sequence = new char[buffer.getInt()];
+        buffer.asCharBuffer().get(sequence);
+        buffer.position(buffer.position() + 2 * sequence.length);
+        sequences.put(new String(sequence), type);
+      }
+      if (buffer.position() != HEADER_SIZE + length) {
+        throw new IOException("Invalid character class table file [" + file + "]: unexpected payload length");
+      }
+      String expected;
+      try {
+        expected = CustomWordBoundaryCharClassTable.contentFingerprint(blocks, pages, sequences);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid character class table file [" + file + "]: " + e.getMessage(), e);
+      }
+      if (expected.equals(new String(fingerprint)) == false) {
+        throw new IOException("Invalid character class table file [" + file + "]: fingerprint [" + new String(fingerprint)
+            + "] does not match its content [" + expected + "]");
+      }
+      return new CustomWordBoundaryCharClassTable(blocks, pages,
+          sequences.isEmpty() ? null : new CustomWordBoundarySequences(sequences), expected);
+    } catch (RuntimeException e) {
+      // negative or overflowing lengths, with a matching checksum
+      throw new IOException("Invalid character class table file [" + file + "]", e);
+    }
+  }
+
+  /** identifies the default classes of the scanner, which the pages of a file are derived from */
+  private static final int SCANNER_CHECKSUM = scannerChecksum();
+
+  private static int scannerChecksum() {
+    ByteBuffer buffer = ByteBuffer.allocate(2 * (CustomWordBoundaryStandardTokenizerTables.CMAP_BLOCKS.length
+        + CustomWordBoundaryStandardTokenizerTables.CMAP_PAGES.length));
+    buffer.asCharBuffer().put(CustomWordBoundaryStandardTokenizerTables.CMAP_BLOCKS)
+        .put(CustomWordBoundaryStandardTokenizerTables.CMAP_PAGES);
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array());
+    return (int) crc.getValue();
+  }
+}
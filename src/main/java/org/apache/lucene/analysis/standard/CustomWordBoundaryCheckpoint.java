@@ -0,0 +1,95 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.util.List;
+
+/**
+ * A point of a text where {@link CustomWordBoundaryStandardTokenizer} can
+ * resume scanning, see {@link CustomWordBoundaryStandardTokenizer#setCheckpoints(int)}.
+ * <p>
+ * A checkpoint is taken right after a char that no token can contain and that
+ * ends any match, so the tokens before it only depend on the text before it.
+ * If a text changes at or after the offset of a checkpoint, its first
+ * {@link #tokenCount()} tokens are unchanged, and the following ones are
+ * obtained by resuming at the checkpoint, see
+ * {@link CustomWordBoundaryStandardTokenizer#setResumeFrom(CustomWordBoundaryCheckpoint)}.
+ */
+public final class CustomWordBoundaryCheckpoint {
+
+  private final int offset;
+  private final int tokenCount;
+  private final int position;
+  private final int skippedPositions;
+
+  CustomWordBoundaryCheckpoint(int offset, int tokenCount, int position, int skippedPositions) {
+    this.offset = offset;
+    this.tokenCount = tokenCount;
+    this.position = position;
+    this.skippedPositions = skippedPositions;
+  }
+
+  /** offset of the checkpoint in the input of the tokenizer, before any offset correction */
+  public int offset() {
+    return offset;
+  }
+
+  /** number of tokens emitted before the checkpoint */
+  public int tokenCount() {
+    return tokenCount;
+  }
+
+  /** number of positions before the checkpoint, including those of skipped tokens */
+  public int position() {
+    return position;
+  }
+
+  /** positions skipped since the last token before the checkpoint */
+  int skippedPositions() {
+    return skippedPositions;
+  }
+
+  /**
+   * Returns the last of the given checkpoints that is still valid after the
+   * text changed from the given offset on, or <code>null</code> if there is
+   * none.
+   *
+   * @param checkpoints  checkpoints in increasing offset order
+   * @param changed      offset of the first changed char
+   */
+  public static CustomWordBoundaryCheckpoint lastBefore(List<CustomWordBoundaryCheckpoint> checkpoints, int changed) {
+    int low = 0;
+    int high = checkpoints.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (checkpoints.get(mid).offset <= changed) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return high < 0 ? null : checkpoints.get(high);
+  }
+
+  @Override
+  public String toString() {
+    return "checkpoint(offset=" + offset + ", tokens=" + tokenCount + ", position=" + position + ")";
+  }
+}
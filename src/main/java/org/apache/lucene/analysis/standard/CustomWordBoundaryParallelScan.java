@@ -0,0 +1,224 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Scans a large in-memory text in parallel.
+ * <p>
+ * The text is cut into chunks right after chars that no token can contain
+ * and that always end the current match (see
+ * {@link CustomWordBoundaryStandardTokenizerImpl#isSafeBreak(char)}), so the
+ * serial scan would restart at the same places. The chunks are scanned on a
+ * {@link ForkJoinPool}, each by its own scanner, and their tokens are read back
+ * in order, with the same offsets, types and skipped tokens as a serial scan.
+ */
+final class CustomWordBoundaryParallelScan {
+
+  /** chunks are never cut smaller than this, in chars */
+  static final int MIN_CHUNK_LENGTH = 4096;
+
+  /** number of chunks per thread of the pool, to balance uneven chunks */
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final char[] buffer;
+  private final List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+
+  private int taskIndex;
+  private Chunk chunk;
+  private int tokenIndex;
+  private int skipped;
+  private int checkpoint;
+  private int checkpointSkipped;
+
+  /**
+   * Starts scanning the given text.
+   *
+   * @param pool      the pool to scan the chunks on
+   * @param settings  the scanner whose settings are used to scan the chunks
+   * @param buffer    the buffer holding the text, must not be modified until it has been scanned
+   * @param offset    the start of the text in the buffer
+   * @param length    the length of the text
+   */
+  CustomWordBoundaryParallelScan(ForkJoinPool pool, CustomWordBoundaryStandardTokenizerImpl settings,
+                                 char[] buffer, int offset, int length) {
+    this.buffer = buffer;
+    int chunkLength = Math.max(MIN_CHUNK_LENGTH, length / (CHUNKS_PER_THREAD * pool.getParallelism()));
+    int end = offset + length;
+    int start = offset;
+    while (start < end) {
+      int split = start + chunkLength < end ? split(settings, buffer, start + chunkLength, end) : end;
+      tasks.add(pool.submit(new ChunkScan(settings, buffer, start, split - start, start - offset)));
+      start = split;
+    }
+  }
+
+  /** returns the first position after a safe break from <code>from</code>, or <code>end</code> */
+  private static int split(CustomWordBoundaryStandardTokenizerImpl scanner, char[] buffer, int from, int end) {
+    for (int i = from; i < end; i++) {
+      if (scanner.isSafeBreak(buffer[i])) {
+        return i + 1;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Moves to the next token, waiting for its chunk to be scanned.
+   *
+   * @return <code>false</code> at the end of the text
+   */
+  boolean next() {
+    skipped = 0;
+    checkpoint = -1;
+    while (chunk == null || tokenIndex == chunk.count) {
+      if (chunk != null) {
+        // tokens skipped at the end of a chunk are counted before the first token of the next one
+        skipped += chunk.trailingSkipped;
+      }
+      if (taskIndex == tasks.size()) {
+        chunk = null;
+        return false;
+      }
+      chunk = tasks.get(taskIndex).join();
+      tasks.set(taskIndex++, null);
+      tokenIndex = 0;
+      if (taskIndex > 1) {
+        // chunks start right after a safe break, where a serial scan can resume
+        checkpoint = chunk.offset;
+        checkpointSkipped = skipped;
+      }
+    }
+    skipped += chunk.skipped[tokenIndex++];
+    return true;
+  }
+
+  /** the buffer holding the text */
+  char[] buffer() {
+    return buffer;
+  }
+
+  /** start offset of the current token in the text */
+  int start() {
+    return chunk.starts[tokenIndex - 1];
+  }
+
+  /** length of the current token */
+  int length() {
+    return chunk.lengths[tokenIndex - 1];
+  }
+
+  /** type of the current token */
+  int type() {
+    return chunk.types[tokenIndex - 1];
+  }
+
+  /** number of tokens skipped before the current token, or before the end of the text */
+  int skipped() {
+    return skipped;
+  }
+
+  /**
+   * start of the last chunk entered before the current token, or before the
+   * end of the text, or -1 if the current token is in the same chunk as the
+   * previous one
+   */
+  int checkpoint() {
+    return checkpoint;
+  }
+
+  /** number of tokens skipped before {@link #checkpoint()} */
+  int checkpointSkipped() {
+    return checkpointSkipped;
+  }
+
+  /**
+   * Stops scanning the chunks that have not been started yet.
+   */
+  void cancel() {
+    for (int i = taskIndex; i < tasks.size(); i++) {
+      tasks.get(i).cancel(false);
+    }
+    tasks.clear();
+    taskIndex = 0;
+    chunk = null;
+  }
+
+  /** tokens of a chunk */
+  private static final class Chunk {
+    int offset;
+    int count;
+    int[] starts = new int[16];
+    int[] lengths = new int[16];
+    byte[] types = new byte[16];
+    int[] skipped = new int[16];
+    int trailingSkipped;
+  }
+
+  private static final class ChunkScan implements Callable<Chunk> {
+    private final CustomWordBoundaryStandardTokenizerImpl settings;
+    private final char[] buffer;
+    private final int offset;
+    private final int length;
+    private final int textOffset;
+
+    ChunkScan(CustomWordBoundaryStandardTokenizerImpl settings, char[] buffer, int offset, int length, int textOffset) {
+      this.settings = settings;
+      this.buffer = buffer;
+      this.offset = offset;
+      this.length = length;
+      this.textOffset = textOffset;
+    }
+
+    @Override
+    public Chunk call() throws IOException {
+      CustomWordBoundaryStandardTokenizerImpl scanner =
+          new CustomWordBoundaryStandardTokenizerImpl(null, settings.getCharClassTable());
+      scanner.copySettings(settings);
+      scanner.yyreset(buffer, offset, length);
+      Chunk chunk = new Chunk();
+      chunk.offset = textOffset;
+      int type;
+      while ((type = scanner.getNextToken()) != CustomWordBoundaryStandardTokenizerImpl.YYEOF) {
+        int i = chunk.count++;
+        if (i == chunk.starts.length) {
+          chunk.starts = ArrayUtil.grow(chunk.starts);
+          chunk.lengths = ArrayUtil.grow(chunk.lengths, chunk.starts.length);
+          chunk.types = ArrayUtil.grow(chunk.types, chunk.starts.length);
+          chunk.skipped = ArrayUtil.grow(chunk.skipped, chunk.starts.length);
+        }
+        chunk.starts[i] = textOffset + scanner.yychar();
+        chunk.lengths[i] = scanner.yylength();
+        chunk.types[i] = (byte) type;
+        chunk.skipped[i] = scanner.getSkippedTokens();
+      }
+      chunk.trailingSkipped = scanner.getSkippedTokens();
+      return chunk;
+    }
+  }
+}
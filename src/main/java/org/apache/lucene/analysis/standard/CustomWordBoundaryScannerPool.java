@@ -0,0 +1,141 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded pool of idle scanners, shared by the tokenizers of any number of
+ * analyzers, see {@link CustomWordBoundaryStandardTokenizer#setScannerPool(CustomWordBoundaryScannerPool)}.
+ * <p>
+ * A tokenizer borrows a scanner for each input and returns it when it is
+ * closed, so the number of scanners, and of their buffers, depends on the
+ * number of inputs tokenized concurrently rather than on the number of
+ * tokenizers. Scanners are pooled by character class table instance, not by
+ * fingerprint: tables compiled from the same mappings are shared by the node,
+ * and a fingerprint collision must never hand out a scanner compiled for
+ * other mappings. At most <code>maxIdle</code> scanners are kept idle: when the
+ * pool is full, the scanner that has been idle for the longest time is
+ * dropped.
+ */
+public final class CustomWordBoundaryScannerPool {
+
+  private final int maxIdle;
+
+  /** idle scanners by table, most recently released last */
+  private final Map<CustomWordBoundaryCharClassTable, ArrayDeque<CustomWordBoundaryStandardTokenizerImpl>> idle =
+      new IdentityHashMap<>();
+
+  /** idle scanners and their table, least recently released first */
+  private final LinkedHashMap<CustomWordBoundaryStandardTokenizerImpl, CustomWordBoundaryCharClassTable> released =
+      new LinkedHashMap<>();
+
+  private long created;
+  private long reused;
+  private long dropped;
+
+  /**
+   * @param maxIdle  the maximum number of idle scanners
+   */
+  public CustomWordBoundaryScannerPool(int maxIdle) {
+    if (maxIdle < 1) {
+      throw new IllegalArgumentException("maxIdle must be greater than zero");
+    }
+    this.maxIdle = maxIdle;
+  }
+
+  /**
+   * Returns an idle scanner for the given table, or a new one. Its settings
+   * are those it was released with.
+   */
+  public CustomWordBoundaryStandardTokenizerImpl borrow(CustomWordBoundaryCharClassTable charClasses) {
+    synchronized (this) {
+      ArrayDeque<CustomWordBoundaryStandardTokenizerImpl> scanners = idle.get(charClasses);
+      if (scanners != null) {
+        CustomWordBoundaryStandardTokenizerImpl scanner = scanners.pollLast();
+        if (scanners.isEmpty()) {
+          idle.remove(charClasses);
+        }
+        released.remove(scanner);
+        reused++;
+        return scanner;
+      }
+      created++;
+    }
+    return new CustomWordBoundaryStandardTokenizerImpl(null, charClasses);
+  }
+
+  /**
+   * Returns a scanner to the pool. It must have been reset, so that it does
+   * not hold its last input, and must not be used anymore.
+   */
+  public synchronized void release(CustomWordBoundaryStandardTokenizerImpl scanner) {
+    if (released.size() == maxIdle) {
+      Iterator<Map.Entry<CustomWordBoundaryStandardTokenizerImpl, CustomWordBoundaryCharClassTable>> eldest =
+          released.entrySet().iterator();
+      Map.Entry<CustomWordBoundaryStandardTokenizerImpl, CustomWordBoundaryCharClassTable> entry = eldest.next();
+      eldest.remove();
+      ArrayDeque<CustomWordBoundaryStandardTokenizerImpl> scanners = idle.get(entry.getValue());
+      scanners.remove(entry.getKey());
+      if (scanners.isEmpty()) {
+        idle.remove(entry.getValue());
+      }
+      dropped++;
+    }
+    CustomWordBoundaryCharClassTable charClasses = scanner.getCharClassTable();
+    ArrayDeque<CustomWordBoundaryStandardTokenizerImpl> scanners = idle.get(charClasses);
+    if (scanners == null) {
+      scanners = new ArrayDeque<>();
+      idle.put(charClasses, scanners);
+    }
+    scanners.addLast(scanner);
+    released.put(scanner, charClasses);
+  }
+
+  /** Returns the number of idle scanners */
+  public synchronized int idleCount() {
+    return released.size();
+  }
+
+  /** Returns the number of scanners created because none was idle */
+  public synchronized long createdCount() {
+    return created;
+  }
+
+  /** Returns the number of idle scanners that were borrowed */
+  public synchronized long reusedCount() {
+    return reused;
+  }
+
+  /** Returns the number of idle scanners dropped because the pool was full */
+  public synchronized long droppedCount() {
+    return dropped;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "scanner pool(idle=" + released.size() + "/" + maxIdle + ", created=" + created + ", reused=" + reused
+        + ", dropped=" + dropped + ")";
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * Immutable trie of the multi-character sequences that
+ * {@link CustomWordBoundaryStandardTokenizerImpl} keeps as single tokens
+ * (e.g. "C++", "C#", ".NET").
+ * <p>
+ * Nodes are flattened into arrays: the children of a node are stored
+ * contiguously, sorted by label, and looked up with a binary search.
+ */
+final class CustomWordBoundarySequences {
+
+  /** index of the first child of each node in {@link #labels}, one extra entry for the end */
+  private final int[] firstChild;
+  /** child labels, sorted for each node */
+  private final char[] labels;
+  /** child node numbers, parallel to {@link #labels} */
+  private final int[] targets;
+  /** token type of the sequence ending at each node, or -1 */
+  private final int[] types;
+  /** length of the longest sequence, in chars */
+  private final int maxLength;
+
+  /**
+   * Builds a trie from sequences sorted in their natural order.
+   *
+   * @param sequences sequences, with the token type to return for each one
+   */
+  CustomWordBoundarySequences(SortedMap<String, Integer> sequences) {
+    // breadth first numbering, so that the children of a node are contiguous
+    List<String> prefixes = new ArrayList<>();
+    List<Integer> nodeTypes = new ArrayList<>();
+    prefixes.add("");
+    int labelCount = 0;
+    int longest = 0;
+    int[] firstChild = new int[16];
+    List<Character> labels = new ArrayList<>();
+    List<Integer> targets = new ArrayList<>();
+    for (int node = 0; node < prefixes.size(); node++) {
+      String prefix = prefixes.get(node);
+      Integer type = sequences.get(prefix);
+      nodeTypes.add(type == null ? -1 : type);
+      longest = Math.max(longest, prefix.length());
+      if (node + 1 >= firstChild.length) {
+        firstChild = Arrays.copyOf(firstChild, firstChild.length << 1);
+      }
+      firstChild[node] = labelCount;
+      char last = 0;
+      boolean first = true;
+      for (String sequence : sequences.tailMap(prefix).keySet()) {
+        if (sequence.startsWith(prefix) == false) {
+          break;
+        }
+        if (sequence.length() == prefix.length()) {
+          continue;
+        }
+        char label = sequence.charAt(prefix.length());
+        if (first || label != last) {
+          labels.add(label);
+          targets.add(prefixes.size());
+          prefixes.add(sequence.substring(0, prefix.length() + 1));
+          labelCount++;
+          last = label;
+          first = false;
+        }
+      }
+    }
+    int nodeCount = prefixes.size();
+    this.firstChild = Arrays.copyOf(firstChild, nodeCount + 1);
+    this.firstChild[nodeCount] = labelCount;
+    this.labels = new char[labelCount];
+    this.targets = new int[labelCount];
+    for (int i = 0; i < labelCount; i++) {
+      this.labels[i] = labels.get(i);
+      this.targets[i] = targets.get(i);
+    }
+    this.types = new int[nodeCount];
+    for (int node = 0; node < nodeCount; node++) {
+      this.types[node] = nodeTypes.get(node);
+    }
+    this.maxLength = longest;
+  }
+
+  /**
+   * Returns the length of the longest sequence, in chars.
+   */
+  int maxLength() {
+    return maxLength;
+  }
+
+  /**
+   * Returns <code>true</code> if a sequence contains the given char.
+   */
+  boolean uses(char c) {
+    for (char label : labels) {
+      if (label == c) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns <code>true</code> if a sequence starts with the given char.
+   */
+  boolean startsWith(char c) {
+    return child(0, c) >= 0;
+  }
+
+  /**
+   * Finds the sequences that are a prefix of the given text.
+   *
+   * @param buffer the text
+   * @param offset start of the text in the buffer
+   * @param end end of the text in the buffer
+   * @param lengths receives the lengths of the matching sequences, shortest first
+   * @param matchTypes receives the token types of the matching sequences
+   * @return the number of matching sequences
+   */
+  int match(char[] buffer, int offset, int end, int[] lengths, int[] matchTypes) {
+    int count = 0;
+    int node = 0;
+    for (int i = offset; i < end; i++) {
+      node = child(node, buffer[i]);
+      if (node < 0) {
+        break;
+      }
+      if (types[node] >= 0) {
+        lengths[count] = i + 1 - offset;
+        matchTypes[count++] = types[node];
+      }
+    }
+    return count;
+  }
+
+  private int child(int node, char label) {
+    int low = firstChild[node];
+    int high = firstChild[node + 1] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char midLabel = labels[mid];
+      if (midLabel < label) {
+        low = mid + 1;
+      } else if (midLabel > label) {
+        high = mid - 1;
+      } else {
+        return targets[mid];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the approximate heap used by this trie, in bytes.
+   */
+  long ramBytesUsed() {
+    return 4L * (firstChild.length + targets.length + types.length) + 2L * labels.length;
+  }
+}
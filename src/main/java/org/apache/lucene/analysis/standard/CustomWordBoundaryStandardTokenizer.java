@@ -21,14 +21,22 @@ package org.apache.lucene.analysis.standard;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.AttributeFactory;
 
 /** Modification of Lucene Standard Tokenizer
@@ -44,9 +52,31 @@ A grammar-based tokenizer constructed with JFlex.
  */
 
 public final class CustomWordBoundaryStandardTokenizer extends Tokenizer {
-  /** A private instance of the JFlex-constructed scanner */
+  /**
+   * A private instance of the JFlex-constructed scanner, created on the first
+   * {@link #reset()}, or null between two inputs when scanners are borrowed
+   * from a pool
+   */
   private CustomWordBoundaryStandardTokenizerImpl scanner;
 
+  private CustomWordBoundaryCharClassTable charClasses;
+
+  /** the table to pick up at each reset, when it can be reloaded, or null */
+  private AtomicReference<CustomWordBoundaryCharClassTable> reloadableTable;
+
+  /**
+   * Reads the character class table to scan with from the given reference
+   * at each {@link #reset()}, so that a new table can be published, e.g.
+   * when the mappings it was compiled from change, without creating new
+   * tokenizers. Scanning itself does not read the reference.
+   *
+   * @param table  the reference to the table, or <code>null</code> to keep
+   *               the current table
+   */
+  public void setReloadableTable(AtomicReference<CustomWordBoundaryCharClassTable> table) {
+    this.reloadableTable = table;
+  }
+
   // TODO: how can we remove these old types?!
   public static final int ALPHANUM          = 0;
   /** @deprecated (3.1) */
@@ -102,7 +132,9 @@ public final class CustomWordBoundaryStandardTokenizer extends Tokenizer {
   private int maxTokenLength = StandardAnalyzer.DEFAULT_MAX_TOKEN_LENGTH;
 
   /**
-   * Set the max allowed token length.  No tokens longer than this are emitted.
+   * Set the max allowed token length.  No tokens longer than this are emitted:
+   * they are split, or skipped, see {@link #setDiscardLongTokens(boolean)}.
+   * The scan buffer is not resized: it grows on demand, up to this length.
    *
    * @throws IllegalArgumentException if the given length is outside of the
    *  range [1, {@value #MAX_TOKEN_LENGTH_LIMIT}].
@@ -115,7 +147,9 @@ public final class CustomWordBoundaryStandardTokenizer extends Tokenizer {
     }
     if (length != maxTokenLength) {
       maxTokenLength = length;
-      scanner.setBufferSize(length);
+      if (scanner != null) {
+        scanner.setBufferSize(length);
+      }
     }
   }
 
@@ -125,40 +159,368 @@ public final class CustomWordBoundaryStandardTokenizer extends Tokenizer {
   }
 
   /**
-   * Creates a new instance of the {@link org.apache.lucene.analysis.standard.StandardTokenizer}.  Attaches
-   * the <code>input</code> to the newly created JFlex scanner.
+   * Skips tokens longer than the max token length instead of splitting them.
+   * A skipped token still increments the position of the next token. Its
+   * text is not buffered: once the max token length is reached, it is
+   * dropped while the token is scanned to its end, so the scan buffer never
+   * grows much beyond the max token length.
+   */
+  public void setDiscardLongTokens(boolean discard) {
+    this.discardLongTokens = discard;
+    if (scanner != null) {
+      scanner.setDiscardLongTokens(discard);
+    }
+  }
+
+  private boolean discardLongTokens;
+  private int tokenTypeMask = CustomWordBoundaryStandardTokenizerImpl.ALL_TYPES;
+  private boolean specializedEngine;
+
+  private boolean lowerCase;
+  private CharArraySet stopWords;
+  private boolean asciiFolding;
+  /** output buffer of ascii folding */
+  private char[] folded;
+
+  /**
+   * Lowercases tokens as they are copied out of the scanner, with the same
+   * output as a {@link org.apache.lucene.analysis.core.LowerCaseFilter}.
+   */
+  public void setLowerCase(boolean lowerCase) {
+    this.lowerCase = lowerCase;
+  }
+
+  /**
+   * Removes stop words, after lowercasing, with the same output (position
+   * increments included) as a {@link org.apache.lucene.analysis.core.StopFilter}.
+   *
+   * @param stopWords the stop words, or <code>null</code> to keep all tokens
+   */
+  public void setStopWords(CharArraySet stopWords) {
+    this.stopWords = stopWords == null || stopWords.isEmpty() ? null : stopWords;
+  }
+
+  /**
+   * Folds tokens to ASCII, after stop words removal, with the same output as
+   * an {@link ASCIIFoldingFilter} that does not preserve the original token.
+   */
+  public void setASCIIFolding(boolean asciiFolding) {
+    this.asciiFolding = asciiFolding;
+  }
+
+  /**
+   * Emits only the tokens of the given types, e.g. <code>"&lt;ALPHANUM&gt;"</code>,
+   * with the same output (position increments included) as a
+   * {@link org.apache.lucene.analysis.core.TypeTokenFilter} keeping these
+   * types. Other tokens are skipped by the scanner, before any attribute is
+   * set.
+   *
+   * @param types the token types to emit, from {@link #TOKEN_TYPES}, or
+   *  <code>null</code> to emit all tokens
+   * @throws IllegalArgumentException if a type is unknown
+   */
+  public void setTokenTypes(Collection<String> types) {
+    tokenTypeMask = tokenTypeMask(types);
+    if (scanner != null) {
+      scanner.setTokenTypes(tokenTypeMask);
+    }
+  }
+
+  /**
+   * Returns the bit set of the given token types, as expected by
+   * {@link CustomWordBoundaryStandardTokenizerImpl#setTokenTypes(int)}.
+   *
+   * @see #setTokenTypes(Collection)
+   */
+  public static int tokenTypeMask(Collection<String> types) {
+    if (types == null) {
+      return CustomWordBoundaryStandardTokenizerImpl.ALL_TYPES;
+    }
+    int mask = 0;
+    for (String type : types) {
+      int index = Arrays.asList(TOKEN_TYPES).indexOf(type);
+      if (index < 0) {
+        throw new IllegalArgumentException("Unknown token type [" + type + "], expected one of " + Arrays.toString(TOKEN_TYPES));
+      }
+      mask |= 1 << index;
+    }
+    return mask;
+  }
+
+  /**
+   * Uses a scanner engine specialized for the character class table of this
+   * tokenizer, or the generic one. The specialized engine folds the class
+   * lookup of Latin-1 chars into its transitions. Its transition table is
+   * built on first use and shared by all the tokenizers using the same
+   * character class table. Both engines emit the same tokens.
+   */
+  public void setSpecializedEngine(boolean specialized) {
+    this.specializedEngine = specialized;
+    if (scanner != null) {
+      scanner.setSpecialized(specialized);
+    }
+  }
+
+  private ForkJoinPool parallelPool;
+  private int parallelThreshold;
+  /** the scan of the current input when it is scanned in parallel, or null */
+  private CustomWordBoundaryParallelScan parallelScan;
+  /** copy of the text of the current input when it is string-backed, or null */
+  private CustomWordBoundaryTextReader stringText;
+  /** copies of string-backed inputs longer than this, in chars, are not kept for the next input */
+  private static final int MAX_RETAINED_COPY_LENGTH = 1 << 16;
+  /** start and length of the current input in the buffer of the parallel scan */
+  private int textOffset;
+  private int textLength;
+
+  /**
+   * Scans large in-memory texts in parallel. A text of at least
+   * <code>threshold</code> chars, given as a {@link CustomWordBoundaryTextReader}
+   * or as a string reader scanned in place, is cut into chunks where no token
+   * can span, which are scanned on the given pool. The tokens are the same as
+   * with a serial scan. Other inputs, and all inputs when the pool has a
+   * single thread, are scanned serially.
+   *
+   * @param pool       the pool to scan on, or <code>null</code> to always scan serially
+   * @param threshold  the minimum length of a text to scan in parallel
+   */
+  public void setParallel(ForkJoinPool pool, int threshold) {
+    this.parallelPool = pool;
+    this.parallelThreshold = Math.max(threshold, 2 * CustomWordBoundaryParallelScan.MIN_CHUNK_LENGTH);
+  }
+
+  /** minimum distance between recorded checkpoints, or -1 if they are not recorded */
+  private int checkpointInterval = -1;
+  private final List<CustomWordBoundaryCheckpoint> checkpoints = new ArrayList<>();
+  private int lastCheckpoint;
+  /** checkpoint the next reset resumes from, or null */
+  private CustomWordBoundaryCheckpoint resumeFrom;
+  /** offset in the text of the first scanned char, not 0 when resuming from a checkpoint */
+  private int baseOffset;
+  /** positions skipped before the checkpoint the scan resumed from */
+  private int resumedPositions;
+  /** number of tokens emitted since the beginning of the text, and positions they take */
+  private int tokenCount;
+  private int position;
+
+  /**
+   * Records checkpoints while tokens are consumed with {@link #incrementToken()},
+   * see {@link #getCheckpoints()}. Checkpoints are at least <code>interval</code>
+   * chars apart: 0 records one in each gap between tokens that has a char no
+   * token can contain, such as a space. In-memory texts that are scanned in
+   * parallel only have checkpoints between their chunks.
+   *
+   * @param interval  the minimum distance between two checkpoints, or -1 to
+   *                  record none
+   */
+  public void setCheckpoints(int interval) {
+    this.checkpointInterval = interval;
+    if (scanner != null) {
+      scanner.setCheckpoints(interval >= 0);
+    }
+  }
+
+  /**
+   * Returns the checkpoints recorded since the last {@link #reset()}, in
+   * increasing offset order. When the text changes at or after the offset of
+   * a checkpoint, tokenizing again from that checkpoint, see
+   * {@link #setResumeFrom(CustomWordBoundaryCheckpoint)}, and appending the
+   * tokens to the first {@link CustomWordBoundaryCheckpoint#tokenCount()}
+   * tokens of this scan gives the tokens of the new text, at a cost
+   * proportional to the text after the checkpoint.
+   *
+   * @see CustomWordBoundaryCheckpoint#lastBefore(List, int)
+   */
+  public List<CustomWordBoundaryCheckpoint> getCheckpoints() {
+    return new ArrayList<>(checkpoints);
+  }
+
+  /**
+   * Resumes the scan at the given checkpoint on the next {@link #reset()},
+   * for a text that only differs from the one the checkpoint was recorded on
+   * at or after its offset. The input is the whole text: the chars before the
+   * checkpoint are skipped without being scanned. The tokens are those the
+   * whole text would produce after the checkpoint, with the same offsets and
+   * position increments, and the checkpoints recorded are those after it.
+   *
+   * @param checkpoint  the checkpoint to resume from, or <code>null</code> to
+   *                    scan from the beginning of the text
+   */
+  public void setResumeFrom(CustomWordBoundaryCheckpoint checkpoint) {
+    this.resumeFrom = checkpoint;
+  }
+
+  private void addCheckpoint(int offset, int skipped) {
+    if (offset - lastCheckpoint >= checkpointInterval) {
+      checkpoints.add(new CustomWordBoundaryCheckpoint(offset, tokenCount, position + skipped, skipped));
+      lastCheckpoint = offset;
+    }
+  }
+
+  private CustomWordBoundaryTokenCache cache;
+  private String cacheFingerprint;
+  /** cached tokens of the current input, replayed instead of scanning it, or null */
+  private CustomWordBoundaryTokenCache.Tokens cachedTokens;
+  private int cachedIndex;
+  /** key of the current input, when its tokens are recorded to be cached, or null */
+  private CustomWordBoundaryTokenCache.Key cacheKey;
+  private CustomWordBoundaryTokenCache.Recorder recorder;
+  /** whether all the tokens of the current input were recorded, i.e. its end was reached */
+  private boolean recordedAll;
+  /** the start of the input, read to look it up in the cache */
+  private char[] readAhead;
+
+  /**
+   * Looks up the tokens of short inputs, of at most
+   * {@link CustomWordBoundaryTokenCache#MAX_TEXT_LENGTH} chars, in the given
+   * cache. Cached tokens are replayed with the same attributes as a scan.
+   * Inputs that are not cached yet are scanned, and their tokens cached once
+   * they have all been consumed with {@link #incrementToken()}. Inputs resumed
+   * from a checkpoint, or while checkpoints are recorded, are always scanned.
+   *
+   * @param cache        the cache, or <code>null</code> to always scan
+   * @param fingerprint  identifies the settings of this tokenizer that change
+   *                     its tokens (token types, lowercasing, ...), besides
+   *                     its character class table, which is accounted for:
+   *                     only tokenizers with the same fingerprint and the same
+   *                     table instance share entries
+   */
+  public void setCache(CustomWordBoundaryTokenCache cache, String fingerprint) {
+    this.cache = cache;
+    this.cacheFingerprint = fingerprint;
+  }
+
+  private CustomWordBoundaryScannerPool scannerPool;
+  /** counters of the scanners returned to the pool, less those of the current scanner when it was borrowed */
+  private long refills;
+  private long grows;
+  private long compactions;
+  private long shrinks;
+
+  /**
+   * Borrows a scanner from the given pool for each input, from {@link #reset()}
+   * to {@link #close()}, instead of holding one for the life of this
+   * tokenizer. Must be called before the first input.
+   *
+   * @param pool  the pool, or <code>null</code> to hold a scanner
+   */
+  public void setScannerPool(CustomWordBoundaryScannerPool pool) {
+    this.scannerPool = pool;
+  }
+
+  /** borrows or creates a scanner for the current table */
+  private void acquireScanner() {
+    scanner = scannerPool != null ? scannerPool.borrow(charClasses) : new CustomWordBoundaryStandardTokenizerImpl(null, charClasses);
+    configureScanner();
+    refills -= scanner.getRefillCount();
+    grows -= scanner.getGrowCount();
+    compactions -= scanner.getCompactionCount();
+    shrinks -= scanner.getShrinkCount();
+  }
+
+  /** returns the scanner to the pool, if any */
+  private void releaseScanner() {
+    refills += scanner.getRefillCount();
+    grows += scanner.getGrowCount();
+    compactions += scanner.getCompactionCount();
+    shrinks += scanner.getShrinkCount();
+    if (scannerPool != null) {
+      scannerPool.release(scanner);
+    }
+    scanner = null;
+  }
+
+  /** switches to the latest table, if it was reloaded */
+  private void reloadTable() {
+    CustomWordBoundaryCharClassTable table = reloadableTable.get();
+    if (table != charClasses) {
+      charClasses = table;
+      if (scanner != null) {
+        // scanners are bound to a table
+        scanner.yyreset((Reader) null);
+        releaseScanner();
+      }
+    }
+  }
+
+  /** applies the settings of this tokenizer to its scanner */
+  private void configureScanner() {
+    scanner.setBufferSize(maxTokenLength);
+    scanner.setDiscardLongTokens(discardLongTokens);
+    scanner.setTokenTypes(tokenTypeMask);
+    scanner.setSpecialized(specializedEngine);
+    scanner.setCheckpoints(checkpointInterval >= 0);
+  }
+
+  /** Returns the number of reads from the input, since this tokenizer was created */
+  public long getRefillCount() {
+    return refills + (scanner == null ? 0 : scanner.getRefillCount());
+  }
+
+  /** Returns the number of times the scan buffer was grown for a long token */
+  public long getGrowCount() {
+    return grows + (scanner == null ? 0 : scanner.getGrowCount());
+  }
+
+  /** Returns the number of times the scan buffer was compacted to make room for input */
+  public long getCompactionCount() {
+    return compactions + (scanner == null ? 0 : scanner.getCompactionCount());
+  }
+
+  /** Returns the number of times the scan buffer was shrunk after documents without long tokens */
+  public long getShrinkCount() {
+    return shrinks + (scanner == null ? 0 : scanner.getShrinkCount());
+  }
+
+  /**
+   * Creates a new instance of the {@link org.apache.lucene.analysis.standard.StandardTokenizer}.  The
+   * JFlex scanner is created, or borrowed from a pool, when the first input is reset.
    * See http://issues.apache.org/jira/browse/LUCENE-1068
    */
   public CustomWordBoundaryStandardTokenizer() {
-    this(Collections.<Character, Character> emptyMap());
+    this(CustomWordBoundaryCharClassTable.DEFAULT);
   }
 
   public CustomWordBoundaryStandardTokenizer(Map<Character, Character> characterMappings) {
-    init(characterMappings);
+    this(CustomWordBoundaryCharClassTable.compile(characterMappings));
+  }
+
+  /**
+   * Creates a new instance sharing an already compiled character class table.
+   */
+  public CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable charClasses) {
+    init(charClasses);
   }
 
   /**
    * Creates a new StandardTokenizer with a given {@link org.apache.lucene.util.AttributeFactory}
    */
   public CustomWordBoundaryStandardTokenizer(AttributeFactory factory) {
-    this(factory, Collections.<Character, Character> emptyMap());
+    this(factory, CustomWordBoundaryCharClassTable.DEFAULT);
   }
 
   public CustomWordBoundaryStandardTokenizer(AttributeFactory factory, Map<Character, Character> characterMappings) {
+    this(factory, CustomWordBoundaryCharClassTable.compile(characterMappings));
+  }
+
+  public CustomWordBoundaryStandardTokenizer(AttributeFactory factory, CustomWordBoundaryCharClassTable charClasses) {
     super(factory);
-    init(characterMappings);
+    init(charClasses);
   }
 
-  private void init(Map<Character, Character> characterMappings) {
-    this.scanner = new CustomWordBoundaryStandardTokenizerImpl(input, characterMappings);
+  private void init(CustomWordBoundaryCharClassTable charClasses) {
+    this.charClasses = charClasses;
   }
 
   public CustomWordBoundaryStandardTokenizer(Reader input) {
-    this(input, Collections.<Character, Character> emptyMap());
+    this(input, CustomWordBoundaryCharClassTable.DEFAULT);
   }
   public CustomWordBoundaryStandardTokenizer(Reader input, Map<Character, Character> characterMappings) {
+    this(input, CustomWordBoundaryCharClassTable.compile(characterMappings));
+  }
+  public CustomWordBoundaryStandardTokenizer(Reader input, CustomWordBoundaryCharClassTable charClasses) {
     this.input = input;
-    init(characterMappings);
+    init(charClasses);
   }
 
   // this tokenizer generates three attributes:
@@ -176,21 +538,75 @@ public final class CustomWordBoundaryStandardTokenizer extends Tokenizer {
   @Override
   public final boolean incrementToken() throws IOException {
     clearAttributes();
-    skippedPositions = 0;
+    if (cachedTokens != null) {
+      return replayCachedToken();
+    }
+    skippedPositions = resumedPositions;
+    resumedPositions = 0;
 
     while(true) {
-      int tokenType = scanner.getNextToken();
+      int tokenType;
+      int start;
+      int length;
+      if (parallelScan != null) {
+        boolean more = parallelScan.next();
+        if (checkpointInterval >= 0 && parallelScan.checkpoint() >= 0) {
+          addCheckpoint(baseOffset + parallelScan.checkpoint(), skippedPositions + parallelScan.checkpointSkipped());
+        }
+        skippedPositions += parallelScan.skipped();
+        if (more == false) {
+          recordedAll = cacheKey != null;
+          return false;
+        }
+        tokenType = parallelScan.type();
+        start = baseOffset + parallelScan.start();
+        length = parallelScan.length();
+      } else {
+        tokenType = scanner.getNextToken();
+        if (checkpointInterval >= 0 && scanner.getCheckpoint() >= 0) {
+          addCheckpoint(scanner.getCheckpoint(), skippedPositions + scanner.getCheckpointSkippedTokens());
+        }
+        // tokens of the types that are not emitted, or too long, still increment the position
+        skippedPositions += scanner.getSkippedTokens();
 
-      if (tokenType == StandardTokenizerImpl.YYEOF) {
-        return false;
+        if (tokenType == StandardTokenizerImpl.YYEOF) {
+          recordedAll = cacheKey != null;
+          return false;
+        }
+        start = scanner.yychar();
+        length = scanner.yylength();
       }
 
-      if (scanner.yylength() <= maxTokenLength) {
+      if (length <= maxTokenLength) {
+        if (parallelScan != null) {
+          char[] buffer = parallelScan.buffer();
+          int offset = textOffset + start;
+          if (lowerCase) {
+            CustomWordBoundaryStandardTokenizerImpl.copyLowerCase(buffer, offset, length, termAtt);
+          } else {
+            termAtt.copyBuffer(buffer, offset, length);
+          }
+        } else if (lowerCase) {
+          scanner.getLowerCaseText(termAtt);
+        } else {
+          scanner.getText(termAtt);
+        }
+        if (stopWords != null && stopWords.contains(termAtt.buffer(), 0, termAtt.length())) {
+          // a removed stop word still increments the position
+          skippedPositions++;
+          continue;
+        }
+        if (asciiFolding) {
+          foldToASCII();
+        }
         posIncrAtt.setPositionIncrement(skippedPositions+1);
-        scanner.getText(termAtt);
-        final int start = scanner.yychar();
-        offsetAtt.setOffset(correctOffset(start), correctOffset(start+termAtt.length()));
+        offsetAtt.setOffset(correctOffset(start), correctOffset(start+length));
         typeAtt.setType(StandardTokenizer.TOKEN_TYPES[tokenType]);
+        tokenCount++;
+        position += skippedPositions+1;
+        if (cacheKey != null) {
+          recorder.add(termAtt.buffer(), termAtt.length(), start, start+length, tokenType, skippedPositions+1);
+        }
         return true;
       } else
         // When we skip a too-long term, we still increment the
@@ -199,26 +615,290 @@ public final class CustomWordBoundaryStandardTokenizer extends Tokenizer {
     }
   }
 
+  private boolean replayCachedToken() {
+    CustomWordBoundaryTokenCache.Tokens tokens = cachedTokens;
+    if (cachedIndex == tokens.count) {
+      skippedPositions = tokens.finalSkippedPositions;
+      return false;
+    }
+    int i = cachedIndex++ * CustomWordBoundaryTokenCache.TOKEN_INTS;
+    int termStart = i == 0 ? 0 : tokens.data[i - CustomWordBoundaryTokenCache.TOKEN_INTS];
+    termAtt.copyBuffer(tokens.terms, termStart, tokens.data[i] - termStart);
+    offsetAtt.setOffset(correctOffset(tokens.data[i + 1]), correctOffset(tokens.data[i + 2]));
+    typeAtt.setType(StandardTokenizer.TOKEN_TYPES[tokens.data[i + 3]]);
+    posIncrAtt.setPositionIncrement(tokens.data[i + 4]);
+    return true;
+  }
+
+  /**
+   * Scans the next tokens in bulk, as an alternative to
+   * {@link #incrementToken()} for consumers that do not need attributes: no
+   * attribute is set and nothing is allocated. For each token, its start
+   * offset, its length and its type (an index in {@link #TOKEN_TYPES}) are
+   * stored at the same index of the given arrays, from 0. Offsets are those of
+   * the input of this tokenizer, they are not corrected by char filters.
+   * Stop words are not removed, tokens of the types that are not emitted are.
+   *
+   * @return the number of tokens scanned, less than the length of the arrays
+   *         only at the end of the input
+   */
+  public final int incrementTokens(int[] starts, int[] lengths, byte[] types) throws IOException {
+    // tokens are split at maxTokenLength, or skipped, by the scanner
+    int count = Math.min(starts.length, Math.min(lengths.length, types.length));
+    // tokens consumed in bulk are not cached
+    cacheKey = null;
+    recordedAll = false;
+    if (cachedTokens != null) {
+      int i = 0;
+      int[] data = cachedTokens.data;
+      for (; i < count && cachedIndex < cachedTokens.count; i++) {
+        int j = cachedIndex++ * CustomWordBoundaryTokenCache.TOKEN_INTS;
+        starts[i] = data[j + 1];
+        lengths[i] = data[j + 2] - data[j + 1];
+        types[i] = (byte) data[j + 3];
+      }
+      return i;
+    }
+    if (parallelScan != null) {
+      int i = 0;
+      while (i < count && parallelScan.next()) {
+        starts[i] = baseOffset + parallelScan.start();
+        lengths[i] = parallelScan.length();
+        types[i] = (byte) parallelScan.type();
+        i++;
+      }
+      return i;
+    }
+    return scanner.getNextTokens(starts, lengths, types, 0, count);
+  }
+
+  private void stopParallelScan() {
+    if (parallelScan != null) {
+      parallelScan.cancel();
+      parallelScan = null;
+    }
+  }
+
+  private void foldToASCII() {
+    final char[] buffer = termAtt.buffer();
+    final int length = termAtt.length();
+    for (int i = 0; i < length; i++) {
+      if (buffer[i] >= '\u0080') {
+        // a single char may fold to up to 4 chars
+        if (folded == null || folded.length < 4 * length) {
+          folded = new char[ArrayUtil.oversize(4 * length, 2)];
+        }
+        termAtt.copyBuffer(folded, 0, ASCIIFoldingFilter.foldToASCII(buffer, 0, folded, 0, length));
+        return;
+      }
+    }
+  }
+
   @Override
   public final void end() throws IOException {
     super.end();
     // set final offset
-    int finalOffset = correctOffset(scanner.yychar() + scanner.yylength());
+    int end;
+    if (cachedTokens != null) {
+      end = cachedTokens.finalOffset;
+    } else if (parallelScan != null) {
+      end = textLength;
+    } else if (scanner != null) {
+      end = scanner.yychar() + scanner.yylength();
+    } else {
+      // not reset
+      end = 0;
+    }
+    int finalOffset = correctOffset(end);
     offsetAtt.setOffset(finalOffset, finalOffset);
     // adjust any skipped tokens
     posIncrAtt.setPositionIncrement(posIncrAtt.getPositionIncrement()+skippedPositions);
+    if (cacheKey != null && recordedAll) {
+      // all the tokens were consumed: consumers stopping early must not cache a truncated entry
+      cache.put(cacheKey, recorder.build(end, skippedPositions));
+    }
+    cacheKey = null;
+    recordedAll = false;
   }
 
   @Override
   public void close() throws IOException {
     super.close();
-    scanner.yyreset(input);
+    stopParallelScan();
+    if (stringText != null) {
+      if (stringText.buffer().length > MAX_RETAINED_COPY_LENGTH) {
+        stringText = null;
+      } else {
+        stringText.close();
+      }
+    }
+    if (scanner != null) {
+      scanner.yyreset(input);
+      if (scannerPool != null) {
+        releaseScanner();
+      }
+    }
   }
 
   @Override
   public void reset() throws IOException {
     super.reset();
-    scanner.yyreset(input);
+    stopParallelScan();
+    if (reloadableTable != null) {
+      reloadTable();
+    }
+    if (scanner == null) {
+      acquireScanner();
+    }
+    cachedTokens = null;
+    cacheKey = null;
+    recordedAll = false;
+    CustomWordBoundaryCheckpoint resume = resumeFrom;
+    resumeFrom = null;
+    baseOffset = resume == null ? 0 : resume.offset();
+    boolean cacheable = cache != null && resume == null && checkpointInterval < 0;
+    CustomWordBoundaryTextReader text = inMemoryText();
+    if (text != null) {
+      // the text is already in memory: scan it in place
+      textOffset = text.position();
+      textLength = text.end() - text.position();
+      if (baseOffset > textLength) {
+        throw new IllegalArgumentException("Cannot resume from " + resume + ", the text has only " + textLength + " chars");
+      }
+      int scanOffset = textOffset + baseOffset;
+      int scanLength = textLength - baseOffset;
+      if (cacheable && textLength <= CustomWordBoundaryTokenCache.MAX_TEXT_LENGTH
+          && lookUpCache(text.buffer(), textOffset, textLength)) {
+        // replayed from the cache
+      } else if (parallelPool != null && parallelPool.getParallelism() > 1 && scanLength >= parallelThreshold) {
+        parallelScan = new CustomWordBoundaryParallelScan(parallelPool, scanner, text.buffer(), scanOffset, scanLength);
+        // the serial scanner is not used, but must not hold the previous input
+        scanner.yyreset(text.buffer(), scanOffset, 0);
+      } else {
+        scanner.yyreset(text.buffer(), scanOffset, scanLength);
+      }
+    } else if (cacheable) {
+      int length = readAhead();
+      if (length > CustomWordBoundaryTokenCache.MAX_TEXT_LENGTH) {
+        // too long to be cached: scan what was read, then the rest of the input
+        scanner.yyreset(new PrefixReader(readAhead, length, input));
+      } else if (lookUpCache(readAhead, 0, length) == false) {
+        scanner.yyreset(readAhead, 0, length);
+      }
+    } else {
+      skipInput(resume);
+      scanner.yyreset(input);
+    }
+    scanner.setTextOffset(baseOffset);
     skippedPositions = 0;
+    checkpoints.clear();
+    lastCheckpoint = baseOffset;
+    if (resume != null) {
+      resumedPositions = resume.skippedPositions();
+      tokenCount = resume.tokenCount();
+      position = resume.position() - resume.skippedPositions();
+    } else {
+      resumedPositions = tokenCount = position = 0;
+    }
+  }
+
+  /**
+   * Returns the input if it is a {@link CustomWordBoundaryTextReader}, or a
+   * copy of the unread text of a string-backed input, or <code>null</code>
+   * if the input must be read.
+   */
+  private CustomWordBoundaryTextReader inMemoryText() {
+    if (input instanceof CustomWordBoundaryTextReader) {
+      return (CustomWordBoundaryTextReader) input;
+    }
+    if (stringText == null) {
+      stringText = new CustomWordBoundaryTextReader();
+    }
+    return CustomWordBoundaryStringReaders.copyUnreadText(input, stringText) ? stringText : null;
+  }
+
+  /**
+   * Looks up the tokens of the given text in the cache. If they are not
+   * cached, they are recorded while the text is scanned.
+   *
+   * @return <code>true</code> if the tokens are replayed from the cache
+   */
+  private boolean lookUpCache(char[] buffer, int offset, int length) {
+    CustomWordBoundaryTokenCache.Key key = new CustomWordBoundaryTokenCache.Key(cacheFingerprint, charClasses, buffer,
+        offset, length);
+    cachedTokens = cache.get(key);
+    if (cachedTokens != null) {
+      cachedIndex = 0;
+      // the scanner is not used, but must not hold the previous input
+      scanner.yyreset(buffer, offset, 0);
+      return true;
+    }
+    if (recorder == null) {
+      recorder = new CustomWordBoundaryTokenCache.Recorder();
+    }
+    recorder.clear();
+    cacheKey = key;
+    return false;
+  }
+
+  /** reads the input up to one char more than the longest text that is cached, returns the number of chars read */
+  private int readAhead() throws IOException {
+    if (readAhead == null) {
+      readAhead = new char[CustomWordBoundaryTokenCache.MAX_TEXT_LENGTH + 1];
+    }
+    int length = 0;
+    while (length < readAhead.length) {
+      int read = input.read(readAhead, length, readAhead.length - length);
+      if (read == -1) {
+        break;
+      }
+      length += read;
+    }
+    return length;
+  }
+
+  /** the chars read ahead of the scan, then the rest of the input */
+  private static final class PrefixReader extends Reader {
+    private final char[] prefix;
+    private final int prefixLength;
+    private final Reader rest;
+    private int pos;
+
+    PrefixReader(char[] prefix, int prefixLength, Reader rest) {
+      this.prefix = prefix;
+      this.prefixLength = prefixLength;
+      this.rest = rest;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      if (pos < prefixLength) {
+        int n = Math.min(len, prefixLength - pos);
+        System.arraycopy(prefix, pos, cbuf, off, n);
+        pos += n;
+        return n;
+      }
+      return rest.read(cbuf, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      rest.close();
+    }
+  }
+
+  /** skips the input before the checkpoint to resume from, if any */
+  private void skipInput(CustomWordBoundaryCheckpoint resume) throws IOException {
+    int remaining = baseOffset;
+    while (remaining > 0) {
+      long skipped = input.skip(remaining);
+      if (skipped <= 0) {
+        if (input.read() == -1) {
+          throw new IllegalArgumentException("Cannot resume from " + resume + ", the input has only " + (baseOffset - remaining) + " chars");
+        }
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
   }
 }
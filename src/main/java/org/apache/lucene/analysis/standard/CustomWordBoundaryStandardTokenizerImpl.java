@@ -21,13 +21,7 @@
 
 package org.apache.lucene.analysis.standard;
 
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Map;
-import java.util.Map.Entry;
-
-import java.util.HashMap;
-
 
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 
@@ -56,9 +50,27 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
   /** This character denotes the end of file */
   public static final int YYEOF = -1;
 
-  /** initial size of the lookahead buffer */
+  /**
+   * maximum length of a token in chars, longer tokens are split, or discarded
+   * (see zzDiscard). The buffer is sized independently, see {@link #ZZ_MIN_CAPACITY}.
+   */
   private int ZZ_BUFFERSIZE = 255;
 
+  /**
+   * lookahead kept beyond ZZ_BUFFERSIZE when long tokens are discarded, to
+   * find where they end
+   */
+  private static final int ZZ_DISCARD_LOOKAHEAD = 1024;
+
+  /** initial size of the lookahead buffer, which grows on demand up to ZZ_BUFFERSIZE */
+  private static final int ZZ_MIN_CAPACITY = 1024;
+
+  /**
+   * number of consecutive documents that must use at most a quarter of a
+   * grown buffer before it is halved
+   */
+  private static final int ZZ_SHRINK_AFTER = 32;
+
   /** lexical states */
   public static final int YYINITIAL = 0;
 
@@ -87,9 +99,14 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
   public static final Character WB_CLASS_DOUBLE_QUOTE        = (char)13;
 
   /**
-   * Translates characters to character classes
+   * Translates characters to character classes, unpacked into
+   * {@link CustomWordBoundaryCharClassTable#DEFAULT}.
+   * <p>
+   * The packed tables below are the ones generated by JFlex. They are not
+   * decoded when this class is initialized: the unpacked tables are loaded from
+   * a precomputed resource by {@link CustomWordBoundaryStandardTokenizerTables}.
    */
-  private static final String ZZ_CMAP_PACKED =
+  static final String ZZ_CMAP_PACKED =
     "\42\0\1\15\4\0\1\14\4\0\1\7\1\0\1\10\1\0\12\4"+
     "\1\6\1\7\5\0\32\1\4\0\1\11\1\0\32\1\57\0\1\1"+
     "\2\0\1\3\7\0\1\1\1\0\1\6\2\0\1\1\5\0\27\1"+
@@ -232,25 +249,22 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
     "\u0dff\0\ua6d7\12\51\0\u1035\12\13\0\336\12\u3fe2\0\u021e\12\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\u05ee\0"+
     "\1\3\36\0\140\3\200\0\360\3\uffff\0\uffff\0\ufe12\0";
 
-  /**
-   * Translates characters to character classes
-   */
-  private static final char [] ZZ_CMAP = zzUnpackCMap(ZZ_CMAP_PACKED);
-
-  private final char[]          ZZ_CMAP_EXT;
+  /** the character class table shared by all scanners using the same mappings */
+  private final CustomWordBoundaryCharClassTable zzCharClasses;
 
 
   /**
    * Translates DFA states to action switch labels.
    */
-  private static final int [] ZZ_ACTION = zzUnpackAction();
+  private static final int [] ZZ_ACTION = CustomWordBoundaryStandardTokenizerTables.ACTION;
 
   private static final String ZZ_ACTION_PACKED_0 =
     "\1\0\1\1\1\2\1\3\1\4\1\5\1\1\1\6"+
     "\1\7\1\2\1\1\1\10\1\2\1\0\1\2\1\0"+
     "\1\4\1\0\2\2\2\0\1\1\1\0";
 
-  private static int [] zzUnpackAction() {
+  /** unpacks ZZ_ACTION_PACKED_0, see {@link CustomWordBoundaryStandardTokenizerTables#main} */
+  static int [] zzUnpackAction() {
     int [] result = new int[24];
     int offset = 0;
     offset = zzUnpackAction(ZZ_ACTION_PACKED_0, offset, result);
@@ -273,14 +287,15 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
   /**
    * Translates a state to a row index in the transition table
    */
-  private static final int [] ZZ_ROWMAP = zzUnpackRowMap();
+  private static final int [] ZZ_ROWMAP = CustomWordBoundaryStandardTokenizerTables.ROWMAP;
 
   private static final String ZZ_ROWMAP_PACKED_0 =
     "\0\0\0\22\0\44\0\66\0\110\0\132\0\154\0\176"+
     "\0\220\0\242\0\264\0\306\0\330\0\352\0\374\0\u010e"+
     "\0\u0120\0\154\0\u0132\0\u0144\0\u0156\0\264\0\u0168\0\u017a";
 
-  private static int [] zzUnpackRowMap() {
+  /** unpacks ZZ_ROWMAP_PACKED_0, see {@link CustomWordBoundaryStandardTokenizerTables#main} */
+  static int [] zzUnpackRowMap() {
     int [] result = new int[24];
     int offset = 0;
     offset = zzUnpackRowMap(ZZ_ROWMAP_PACKED_0, offset, result);
@@ -301,7 +316,7 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
   /**
    * The transition table of the DFA
    */
-  private static final int [] ZZ_TRANS = zzUnpackTrans();
+  private static final int [] ZZ_TRANS = CustomWordBoundaryStandardTokenizerTables.TRANS;
 
   private static final String ZZ_TRANS_PACKED_0 =
     "\1\2\1\3\1\4\1\2\1\5\1\6\3\2\1\7"+
@@ -329,7 +344,8 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
     "\1\25\3\0\1\27\13\0\1\27\1\0\1\27\3\0"+
     "\1\30\1\15\14\0\1\30";
 
-  private static int [] zzUnpackTrans() {
+  /** unpacks ZZ_TRANS_PACKED_0, see {@link CustomWordBoundaryStandardTokenizerTables#main} */
+  static int [] zzUnpackTrans() {
     int [] result = new int[396];
     int offset = 0;
     offset = zzUnpackTrans(ZZ_TRANS_PACKED_0, offset, result);
@@ -365,13 +381,14 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
   /**
    * ZZ_ATTRIBUTE[aState] contains the attributes of state <code>aState</code>
    */
-  private static final int [] ZZ_ATTRIBUTE = zzUnpackAttribute();
+  private static final int [] ZZ_ATTRIBUTE = CustomWordBoundaryStandardTokenizerTables.ATTRIBUTE;
 
   private static final String ZZ_ATTRIBUTE_PACKED_0 =
     "\1\0\1\11\13\1\1\0\1\1\1\0\1\1\1\0"+
     "\2\1\2\0\1\1\1\0";
 
-  private static int [] zzUnpackAttribute() {
+  /** unpacks ZZ_ATTRIBUTE_PACKED_0, see {@link CustomWordBoundaryStandardTokenizerTables#main} */
+  static int [] zzUnpackAttribute() {
     int [] result = new int[24];
     int offset = 0;
     offset = zzUnpackAttribute(ZZ_ATTRIBUTE_PACKED_0, offset, result);
@@ -401,7 +418,7 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
 
   /** this buffer contains the current text to be matched and is
       the source of the yytext() string */
-  private char zzBuffer[] = new char[ZZ_BUFFERSIZE];
+  private char zzBuffer[] = new char[ZZ_MIN_CAPACITY];
 
   /** the textposition at the last accepting state */
   private int zzMarkedPos;
@@ -412,10 +429,36 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
   /** startRead marks the beginning of the yytext() string in the buffer */
   private int zzStartRead;
 
-  /** endRead marks the last character in the buffer, that has been read
-      from input */
+  /** endRead marks the end of the window the current token is matched in,
+      see zzWindowEnd */
   private int zzEndRead;
 
+  /** dataEnd marks the last character in the buffer, that has been read
+      from input */
+  private int zzDataEnd;
+
+  /** zzInputAtEOF == true <=> all of the input is in the buffer */
+  private boolean zzInputAtEOF;
+
+  /**
+   * longest live region of the buffer when it had to be refilled, for this
+   * document, or -1 until it is read: a reset without a read in between, such
+   * as the one closing the tokenizer, is not another document
+   */
+  private int zzPeakLive = -1;
+
+  /** number of consecutive documents that used at most a quarter of the buffer */
+  private int zzSmallDocuments;
+
+  /** buffer management counters */
+  private long zzRefills, zzGrows, zzCompactions, zzShrinks;
+
+  /** zzDiscard == true <=> tokens longer than ZZ_BUFFERSIZE are skipped instead of split */
+  private boolean zzDiscard;
+
+  /** zzDiscarding == true <=> the start of the current token has been dropped from the buffer */
+  private boolean zzDiscarding;
+
   /** number of newlines encountered up to the start of the matched text */
   private int yyline;
 
@@ -440,12 +483,146 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
   private boolean zzEOFDone;
 
   /**
-   * The number of occupied positions in zzBuffer beyond zzEndRead.
-   * When a lead/high surrogate has been read from the input stream
-   * into the final zzBuffer position, this will have a value of 1;
-   * otherwise, it will have a value of 0.
+   * The scanner's own buffer, set aside while scanning a caller supplied
+   * array in place (see {@link #yyreset(char[], int, int)}), null otherwise.
+   */
+  private char zzReaderBuffer[];
+
+  /**
+   * zzWordStart[c] == true <=> a char of class c can start (and thus
+   * continue) a token, i.e. is not ignored from the initial state
+   */
+  private static final boolean [] ZZ_WORD_START = zzUnpackWordStart();
+
+  private static boolean [] zzUnpackWordStart() {
+    // rows may be shared between states, the last one ends the transition table
+    int zzLastRow = 0;
+    for (int zzRow : ZZ_ROWMAP) {
+      zzLastRow = Math.max(zzLastRow, zzRow);
+    }
+    boolean [] result = new boolean[ZZ_TRANS.length - zzLastRow];
+    for (int zzClass = 0; zzClass < result.length; zzClass++) {
+      int zzNext = ZZ_TRANS[ZZ_ROWMAP[ZZ_LEXSTATE[YYINITIAL]] + zzClass];
+      result[zzClass] = zzNext != -1 && ZZ_ACTION[zzNext] != 1;
+    }
+    return result;
+  }
+
+  /** number of bits of a state id, and of a char class, in ZZ_DFA */
+  static final int ZZ_DFA_SHIFT = 5;
+
+  /** ZZ_DFA entry bit set if the target state is accepting */
+  static final int ZZ_DFA_ACCEPT = 1 << ZZ_DFA_SHIFT;
+
+  /** ZZ_DFA entry bit set if the target state is accepting and has no transition */
+  static final int ZZ_DFA_FINAL = 2 << ZZ_DFA_SHIFT;
+
+  /**
+   * Compact transition table: the entry of state s and char class c, at
+   * <code>(s &lt;&lt; ZZ_DFA_SHIFT) | c</code>, is the next state id with the
+   * ZZ_DFA_ACCEPT and ZZ_DFA_FINAL bits of its attributes, or -1. The whole
+   * automaton (24 states of 32 classes) fits in 768 bytes, and a transition
+   * takes a single load instead of the row map, transition and attribute
+   * lookups of the generated tables.
+   */
+  static final byte [] ZZ_DFA = zzPackDFA();
+
+  static byte [] zzPackDFA() {
+    int zzClasses = ZZ_WORD_START.length;
+    int zzStates = ZZ_ROWMAP.length;
+    if (zzClasses > 1 << ZZ_DFA_SHIFT || zzStates > 1 << ZZ_DFA_SHIFT) {
+      throw new IllegalStateException("automaton too large for the compact layout: "
+          + zzStates + " states, " + zzClasses + " classes");
+    }
+    byte [] result = new byte[zzStates << ZZ_DFA_SHIFT];
+    java.util.Arrays.fill(result, (byte) -1);
+    for (int zzState = 0; zzState < zzStates; zzState++) {
+      for (int zzClass = 0; zzClass < zzClasses; zzClass++) {
+        int zzNext = ZZ_TRANS[ZZ_ROWMAP[zzState] + zzClass];
+        if (zzNext != -1) {
+          int zzEntry = zzNext;
+          if ((ZZ_ATTRIBUTE[zzNext] & 1) == 1) {
+            zzEntry |= ZZ_DFA_ACCEPT;
+            if ((ZZ_ATTRIBUTE[zzNext] & 8) == 8) {
+              zzEntry |= ZZ_DFA_FINAL;
+            }
+          }
+          result[(zzState << ZZ_DFA_SHIFT) | zzClass] = (byte) zzEntry;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Specializes ZZ_DFA for a char class table: the entry of state s and
+   * Latin-1 char c, at <code>(s &lt;&lt; 8) | c</code>, is the ZZ_DFA entry
+   * of s and the class of c, so that the class lookup is folded into the
+   * transition.
+   *
+   * @param latin1   the classes of the Latin-1 chars
    */
-  private int zzFinalHighSurrogate = 0;
+  static byte [] zzPackLatin1DFA(byte [] latin1) {
+    int zzStates = ZZ_ROWMAP.length;
+    byte [] result = new byte[zzStates << 8];
+    for (int zzState = 0; zzState < zzStates; zzState++) {
+      for (int c = 0; c < 0x100; c++) {
+        result[(zzState << 8) | c] = ZZ_DFA[(zzState << ZZ_DFA_SHIFT) | latin1[c]];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * ZZ_SAFE_BREAK[c] == true <=> chars of class c end any match, and are
+   * ignored on their own, see {@link #isSafeBreak(char)}
+   */
+  private static final boolean [] ZZ_SAFE_BREAK = zzUnpackSafeBreak();
+
+  private static boolean [] zzUnpackSafeBreak() {
+    boolean [] result = new boolean[ZZ_WORD_START.length];
+    int zzInitial = ZZ_LEXSTATE[YYINITIAL];
+    for (int zzClass = 0; zzClass < result.length; zzClass++) {
+      int zzNext = ZZ_DFA[(zzInitial << ZZ_DFA_SHIFT) | zzClass];
+      boolean safe = zzNext != -1 && (zzNext & ZZ_DFA_FINAL) != 0
+          && ZZ_ACTION[zzNext & ((1 << ZZ_DFA_SHIFT) - 1)] == 1;
+      for (int zzState = 0; safe && zzState < ZZ_ROWMAP.length; zzState++) {
+        if (zzState != zzInitial && ZZ_DFA[(zzState << ZZ_DFA_SHIFT) | zzClass] != -1) {
+          safe = false;
+        }
+      }
+      result[zzClass] = safe;
+    }
+    return result;
+  }
+
+  /** sequences kept as single tokens, or null */
+  private final CustomWordBoundarySequences zzSequences;
+
+  /** scratch space for the sequences matching at the current position */
+  private final int [] zzSequenceLengths;
+  private final int [] zzSequenceTypes;
+
+  /** token type of the last matched sequence */
+  private int zzSequenceType;
+
+  /** transitions on Latin-1 chars of the specialized engine, or null */
+  private byte [] zzLatin1DFA;
+
+  /** bit set of the token types to return, the others are skipped */
+  private int zzTypeMask = ALL_TYPES;
+
+  /** number of tokens skipped before the last one returned */
+  private int zzSkippedTokens;
+
+  /** records checkpoints, see {@link #getCheckpoint()} */
+  private boolean zzCheckpoints;
+
+  /** offset of the last checkpoint before the last token returned, or -1 */
+  private int zzCheckpoint = -1;
+
+  /** number of tokens skipped before that checkpoint */
+  private int zzCheckpointSkipped;
 
   /* user code: */
   /** Alphanumeric sequences */
@@ -472,11 +649,116 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
 
   public static final int HANGUL_TYPE = StandardTokenizer.HANGUL;
 
+  /** Token type mask returning all tokens, see {@link #setTokenTypes(int)} */
+  public static final int ALL_TYPES = -1;
+
   public final int yychar()
   {
     return yychar;
   }
 
+  /**
+   * Scans up to <code>count</code> tokens at once, without filling any
+   * attribute: for each token, its start offset in the input, its length and
+   * its type (one of the <code>*_TYPE</code> constants) are stored at the same
+   * index of the given arrays, from <code>offset</code>. Tokens of the types
+   * that are not returned are skipped.
+   *
+   * @return the number of tokens scanned, less than <code>count</code> only at
+   *         the end of the input
+   */
+  public final int getNextTokens(int[] starts, int[] lengths, byte[] types, int offset, int count)
+      throws java.io.IOException {
+    int end = offset + count;
+    int i = offset;
+    while (i < end) {
+      int type = getNextToken();
+      if (type == YYEOF) {
+        break;
+      }
+      starts[i] = yychar;
+      lengths[i] = zzMarkedPos - zzStartRead;
+      types[i] = (byte) type;
+      i++;
+    }
+    return i - offset;
+  }
+
+  /**
+   * Sets the token types to return, as a bit set of <code>1 &lt;&lt; type</code>
+   * for each type, or {@link #ALL_TYPES}. Tokens of other types are skipped
+   * while scanning, see {@link #getSkippedTokens()}.
+   */
+  public final void setTokenTypes(int typeMask) {
+    zzTypeMask = typeMask;
+  }
+
+  /**
+   * Returns the number of tokens that were skipped because of their type or
+   * their length by the last call to {@link #getNextToken()}, before the token it returned or
+   * the end of the input.
+   */
+  public final int getSkippedTokens() {
+    return zzSkippedTokens;
+  }
+
+  /**
+   * Records checkpoints while scanning, see {@link #getCheckpoint()}.
+   */
+  public final void setCheckpoints(boolean checkpoints) {
+    zzCheckpoints = checkpoints;
+    zzCheckpoint = -1;
+  }
+
+  /**
+   * Returns the offset of the last checkpoint passed by the last call to
+   * {@link #getNextToken()}, before the token it returned or the end of the
+   * input, or -1 if there is none or checkpoints are not recorded. A
+   * checkpoint is right after a char that ends any match and is ignored on
+   * its own (see {@link #isSafeBreak(char)}): the tokens before it do not
+   * depend on the text after it, and the scanner restarts there.
+   */
+  public final int getCheckpoint() {
+    return zzCheckpoint;
+  }
+
+  /**
+   * Returns the number of tokens skipped by the last call to
+   * {@link #getNextToken()} before its checkpoint, see {@link #getSkippedTokens()}.
+   */
+  public final int getCheckpointSkippedTokens() {
+    return zzCheckpointSkipped;
+  }
+
+  /**
+   * Sets the offset of the next token, when the input starts at a checkpoint
+   * of a longer text rather than at its beginning. Must be called after
+   * {@link #yyreset(java.io.Reader)}, before the first token.
+   */
+  public final void setTextOffset(int offset) {
+    yychar = offset;
+  }
+
+  /** records a checkpoint after the ignored char that was just matched, if it is a safe break */
+  private void zzCheckpoint() {
+    if (zzMarkedPos - zzStartRead == 1 && isSafeBreak(zzBuffer[zzStartRead])) {
+      zzCheckpoint = yychar + 1;
+      zzCheckpointSkipped = zzSkippedTokens;
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if tokens of the given type are returned,
+   * otherwise counts a skipped token.
+   */
+  private boolean zzKeep(int type) {
+    if ((zzTypeMask & (1 << type)) != 0) {
+      return true;
+    }
+    zzSkippedTokens++;
+    return false;
+  }
+
   /**
    * Fills CharTermAttribute with the current token text.
    */
@@ -485,15 +767,102 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
   }
 
   /**
-   * Sets the scanner buffer size in chars
+   * Fills CharTermAttribute with the current token text, lowercased while it
+   * is copied, exactly as {@link org.apache.lucene.analysis.core.LowerCaseFilter} would.
+   */
+  public final void getLowerCaseText(CharTermAttribute t) {
+    copyLowerCase(zzBuffer, zzStartRead, zzMarkedPos-zzStartRead, t);
+  }
+
+  /**
+   * Fills CharTermAttribute with the given text, lowercased while it is
+   * copied.
+   */
+  static void copyLowerCase(char[] buffer, int offset, int length, CharTermAttribute t) {
+    char[] term = t.resizeBuffer(length);
+    int end = offset + length;
+    for (int i = 0; i < length;) {
+      char c = buffer[offset + i];
+      if (c < 0x80) {
+        term[i++] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+      }
+      else {
+        int codePoint = Character.codePointAt(buffer, offset + i, end);
+        i += Character.toChars(Character.toLowerCase(codePoint), term, i);
+      }
+    }
+    t.setLength(length);
+  }
+
+  /**
+   * Sets the maximum token length in chars: longer tokens are split. The
+   * buffer itself is not resized, it grows on demand.
    */
    public final void setBufferSize(int numChars) {
      ZZ_BUFFERSIZE = numChars;
-     char[] newZzBuffer = new char[ZZ_BUFFERSIZE];
-     System.arraycopy(zzBuffer, 0, newZzBuffer, 0, Math.min(zzBuffer.length, ZZ_BUFFERSIZE));
-     zzBuffer = newZzBuffer;
    }
 
+  /**
+   * Skips tokens longer than the buffer size instead of splitting them, see
+   * {@link #getSkippedTokens()}. A long token is not buffered: once it is
+   * known to be too long, its text is dropped as it is scanned to its end.
+   */
+  public final void setDiscardLongTokens(boolean discard) {
+    zzDiscard = discard;
+  }
+
+  /**
+   * Switches to the engine specialized for the char class table of this
+   * scanner, which looks up the transitions on Latin-1 chars without
+   * classifying them first. Tokens are the same with both engines.
+   */
+  public final void setSpecialized(boolean specialized) {
+    zzLatin1DFA = specialized ? zzCharClasses.latin1Transitions() : null;
+  }
+
+  /**
+   * Copies the token length, token types, long token handling and engine of
+   * another scanner, so that both return the same tokens.
+   */
+  final void copySettings(CustomWordBoundaryStandardTokenizerImpl other) {
+    ZZ_BUFFERSIZE = other.ZZ_BUFFERSIZE;
+    zzDiscard = other.zzDiscard;
+    zzTypeMask = other.zzTypeMask;
+    zzLatin1DFA = other.zzLatin1DFA;
+  }
+
+  /**
+   * Returns <code>true</code> if a scan can safely be split after the given
+   * char: no token or sequence can contain it, and from any state it stops
+   * the current match, so the scanner always restarts right after it.
+   */
+  final boolean isSafeBreak(char c) {
+    if (Character.isSurrogate(c) || !ZZ_SAFE_BREAK[zzCharClasses.classOf(c)]) {
+      return false;
+    }
+    return zzSequences == null || !zzSequences.uses(c);
+  }
+
+  /** Returns the number of reads from the input */
+  public final long getRefillCount() {
+    return zzRefills;
+  }
+
+  /** Returns the number of times the buffer was grown */
+  public final long getGrowCount() {
+    return zzGrows;
+  }
+
+  /** Returns the number of times the live region was moved to the start of the buffer */
+  public final long getCompactionCount() {
+    return zzCompactions;
+  }
+
+  /** Returns the number of times the buffer was shrunk */
+  public final long getShrinkCount() {
+    return zzShrinks;
+  }
+
 
   /**
    * Creates a new scanner
@@ -502,7 +871,7 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
    *          the java.io.Reader to read input from.
    */
   public CustomWordBoundaryStandardTokenizerImpl(java.io.Reader in) {
-    this(in, Collections.<Character, Character> emptyMap());
+    this(in, CustomWordBoundaryCharClassTable.DEFAULT);
   }
 
   /**
@@ -514,58 +883,31 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
    *          Custom character mapping translations
    */
   public CustomWordBoundaryStandardTokenizerImpl(java.io.Reader in, Map<Character, Character> cmap) {
-    this.zzReader = in;
-    ZZ_CMAP_EXT = zzFillCMapExt(cmap);
+    this(in, CustomWordBoundaryCharClassTable.compile(cmap));
   }
 
   /**
-   * Fills the character translation table accounting for any character mapping
-   * overrides
+   * Creates a new scanner
    *
-   * @param cmap
-   *          custom override character translation mappings
-   * @return the unpacked character translation table
-   */
-  private static char[] zzFillCMapExt(Map<Character, Character> cmap) {
-    char[] map = Arrays.copyOf(ZZ_CMAP, ZZ_CMAP.length);
-
-    // Map<Character, Integer> s = new HashMap<Character, Integer>();
-    // for (int i=0; i<256; ++i) {
-    //   int t = (int)ZZ_CMAP[i];
-    //   // if (s.get(t) == null) {
-    //     s.put((char)i, t);
-    //   // }
-    // }
-    // if (true)
-    //   throw new Error(s.toString());
-
-    for (Entry<Character, Character> entry : cmap.entrySet()) {
-      int pos = (int) entry.getKey();
-      map[pos] = entry.getValue();
-    }
-    // char after = map[35];
-    // if (true)
-    //   throw new Error(before + " toto " + after + " titi " + map[(int)'a'] + " tata " + map[(int)'_'] + " / "+ map[(int)',']);
-    return map;
+   * @param in
+   *          the java.io.Reader to read input from.
+   * @param charClasses
+   *          the (shared) character class table to translate input with
+   */
+  public CustomWordBoundaryStandardTokenizerImpl(java.io.Reader in, CustomWordBoundaryCharClassTable charClasses) {
+    this.zzReader = in;
+    this.zzCharClasses = charClasses;
+    this.zzSequences = charClasses.sequences();
+    int maxMatches = zzSequences == null ? 0 : zzSequences.maxLength();
+    this.zzSequenceLengths = new int[maxMatches];
+    this.zzSequenceTypes = new int[maxMatches];
   }
 
-
   /**
-   * Unpacks the compressed character translation table.
-   *
-   * @param packed   the packed character translation table
-   * @return         the unpacked character translation table
+   * Returns the character class table used by this scanner.
    */
-  private static char [] zzUnpackCMap(String packed) {
-    char [] map = new char[0x110000];
-    int i = 0;  /* index in packed string  */
-    int j = 0;  /* index in unpacked array */
-    while (i < 2836) {
-      int  count = packed.charAt(i++);
-      char value = packed.charAt(i++);
-      do map[j++] = value; while (--count > 0);
-    }
-    return map;
+  public final CustomWordBoundaryCharClassTable getCharClassTable() {
+    return zzCharClasses;
   }
 
 
@@ -577,48 +919,147 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
    * @exception   java.io.IOException  if any I/O-Error occurs
    */
   private boolean zzRefill() throws java.io.IOException {
+    while (true) {
+      int end = zzWindowEnd(zzStartRead);
+      if (end > zzEndRead) {
+        zzEndRead = end;
+        return false;
+      }
+      if (zzDataEnd - zzStartRead >= zzWindow()) {
+        if (zzDiscard && zzMarkedPos - zzStartRead > ZZ_BUFFERSIZE) {
+          /* the token is too long to be returned: drop its text, but keep the lookahead */
+          yychar += zzMarkedPos - zzStartRead;
+          zzStartRead = zzMarkedPos;
+          zzDiscarding = true;
+          continue;
+        }
+        /* the token window is full: the token is split here */
+        return true;
+      }
+      if (zzInputAtEOF) {
+        return true;
+      }
+      zzFill();
+    }
+  }
+
 
-    /* first: make room (if you can) */
-    if (zzStartRead > 0) {
-      zzEndRead += zzFinalHighSurrogate;
-      zzFinalHighSurrogate = 0;
+  /**
+   * Returns the maximum number of chars a token is matched in: the token
+   * length, and some lookahead to find the end of tokens to discard.
+   */
+  private int zzWindow() {
+    return zzDiscard ? ZZ_BUFFERSIZE + ZZ_DISCARD_LOOKAHEAD : ZZ_BUFFERSIZE;
+  }
+
+
+  /**
+   * Reads whatever input is available, with a single read. When there is no
+   * room left at the end of the buffer, the live region (from zzStartRead) is
+   * moved to the start of the buffer, or to a larger one if it fills more than
+   * half of it.
+   *
+   * @exception   java.io.IOException  if any I/O-Error occurs
+   */
+  private void zzFill() throws java.io.IOException {
+    int live = zzDataEnd - zzStartRead;
+    zzPeakLive = Math.max(zzPeakLive, live);
+
+    if (zzDataEnd == zzBuffer.length) {
+      char[] newBuffer = zzBuffer;
+      /* a whole token window, and the high surrogate ending it, must fit */
+      int window = zzWindow();
+      if (live > zzBuffer.length >> 1 && zzBuffer.length <= window) {
+        newBuffer = new char[(int) Math.min(zzBuffer.length * 2L, window + 1L)];
+        zzGrows++;
+      }
+      else {
+        zzCompactions++;
+      }
       System.arraycopy(zzBuffer, zzStartRead,
-                       zzBuffer, 0,
-                       zzEndRead-zzStartRead);
+                       newBuffer, 0,
+                       live);
+      zzBuffer = newBuffer;
 
       /* translate stored positions */
+      zzDataEnd-= zzStartRead;
       zzEndRead-= zzStartRead;
       zzCurrentPos-= zzStartRead;
       zzMarkedPos-= zzStartRead;
       zzStartRead = 0;
     }
 
+    int numRead;
+    do {
+      numRead = zzReader.read(zzBuffer, zzDataEnd, zzBuffer.length - zzDataEnd);
+    } while (numRead == 0);
+    zzRefills++;
 
-    /* fill the buffer with new input */
-    int requested = zzBuffer.length - zzEndRead - zzFinalHighSurrogate;
-    int totalRead = 0;
-    while (totalRead < requested) {
-      int numRead = zzReader.read(zzBuffer, zzEndRead + totalRead, requested - totalRead);
-      if (numRead == -1) {
-        break;
-      }
-      totalRead += numRead;
+    if (numRead < 0) {
+      zzInputAtEOF = true;
     }
+    else {
+      zzDataEnd += numRead;
+    }
+  }
 
-    if (totalRead > 0) {
-      zzEndRead += totalRead;
-      if (totalRead == requested) { /* possibly more input available */
-        if (Character.isHighSurrogate(zzBuffer[zzEndRead - 1])) {
-          --zzEndRead;
-          zzFinalHighSurrogate = 1;
-          if (totalRead == 1) { return true; }
+
+  /**
+   * Returns the end of the window a token starting at <code>start</code> is
+   * matched in: at most zzWindow() chars, and never ending between the two
+   * chars of a surrogate pair, unless the window is a single char. A final
+   * high surrogate is held back until its low surrogate has been read.
+   */
+  private int zzWindowEnd(int start) {
+    int window = zzWindow();
+    int end = Math.min(zzDataEnd, start + window);
+    if (end > start && Character.isHighSurrogate(zzBuffer[end - 1])) {
+      if (end < start + window) {
+        if (!zzInputAtEOF) {
+          end--;
         }
       }
-      return false;
+      else if (end - 1 > start) {
+        end--;
+      }
     }
+    return end;
+  }
+
 
-    // totalRead = 0: End of stream
-    return true;
+  /**
+   * Matches the longest sequence starting at zzStartRead that is not followed
+   * by a char continuing a word. Refills the buffer as needed for lookahead,
+   * so positions and the buffer must be reloaded from the fields afterwards.
+   *
+   * @return      the length of the sequence, or 0 if none matches.
+   *              Its token type is stored in zzSequenceType.
+   *
+   * @exception   java.io.IOException  if any I/O-Error occurs
+   */
+  private int zzMatchSequence() throws java.io.IOException {
+    if (zzStartRead < zzEndRead && !zzSequences.startsWith(zzBuffer[zzStartRead])) {
+      return 0;
+    }
+    // the longest sequence, and a whole code point after it
+    int lookahead = Math.min(zzSequences.maxLength() + 2, zzWindow());
+    boolean eof = false;
+    while (zzEndRead - zzStartRead < lookahead && !eof) {
+      eof = zzRefill();
+    }
+    int count = zzSequences.match(zzBuffer, zzStartRead, zzEndRead, zzSequenceLengths, zzSequenceTypes);
+    while (--count >= 0) {
+      int zzEnd = zzStartRead + zzSequenceLengths[count];
+      if (zzEnd < zzEndRead) {
+        int zzNextInput = Character.codePointAt(zzBuffer, zzEnd, zzEndRead);
+        if (ZZ_WORD_START[zzCharClasses.classOf(zzNextInput)]) {
+          continue;
+        }
+      }
+      zzSequenceType = zzSequenceTypes[count];
+      return zzSequenceLengths[count];
+    }
+    return 0;
   }
 
 
@@ -628,6 +1069,8 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
   public final void yyclose() throws java.io.IOException {
     zzAtEOF = true;            /* indicate end of file */
     zzEndRead = zzStartRead;  /* invalidate buffer    */
+    zzDataEnd = zzStartRead;
+    zzInputAtEOF = true;
 
     if (zzReader != null)
       zzReader.close();
@@ -642,22 +1085,62 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
    * <b>cannot</b> be reused (internal buffer is discarded and lost).
    * Lexical state is set to <tt>ZZ_INITIAL</tt>.
    *
-   * Internal scan buffer is resized down to its initial length, if it has grown.
+   * Internal scan buffer is halved if it has grown, and recent documents have
+   * used at most a quarter of it.
    *
    * @param reader   the new input stream
    */
   public final void yyreset(java.io.Reader reader) {
+    if (zzReaderBuffer != null) {
+      zzBuffer = zzReaderBuffer;
+      zzReaderBuffer = null;
+    }
+    if (zzPeakLive < 0) {
+      /* nothing was read since the last reset */
+    }
+    else if (zzBuffer.length > ZZ_MIN_CAPACITY && zzPeakLive <= zzBuffer.length >> 2) {
+      if (++zzSmallDocuments >= ZZ_SHRINK_AFTER) {
+        zzBuffer = new char[Math.max(ZZ_MIN_CAPACITY, zzBuffer.length >> 1)];
+        zzSmallDocuments = 0;
+        zzShrinks++;
+      }
+    }
+    else {
+      zzSmallDocuments = 0;
+    }
+    zzPeakLive = -1;
+    zzDiscarding = false;
+    zzDataEnd = 0;
+    zzInputAtEOF = false;
     zzReader = reader;
     zzAtBOL  = true;
     zzAtEOF  = false;
     zzEOFDone = false;
     zzEndRead = zzStartRead = 0;
     zzCurrentPos = zzMarkedPos = 0;
-    zzFinalHighSurrogate = 0;
     yyline = yychar = yycolumn = 0;
     zzLexicalState = YYINITIAL;
-    if (zzBuffer.length > ZZ_BUFFERSIZE)
-      zzBuffer = new char[ZZ_BUFFERSIZE];
+  }
+
+
+  /**
+   * Resets the scanner to scan the given text in place: the text is neither
+   * copied nor refilled, and must not be modified until it has been scanned.
+   * Tokens are split at the buffer size as they would be when reading the same
+   * text through a Reader.
+   *
+   * @param buffer   the buffer holding the text
+   * @param offset   the start of the text in the buffer
+   * @param length   the length of the text
+   */
+  public final void yyreset(char[] buffer, int offset, int length) {
+    yyreset((java.io.Reader) null);
+    zzReaderBuffer = zzBuffer;
+    zzBuffer = buffer;
+    zzEndRead = zzStartRead = offset;
+    zzCurrentPos = zzMarkedPos = offset;
+    zzDataEnd = offset + length;
+    zzInputAtEOF = true;
   }
 
 
@@ -770,11 +1253,15 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
     int zzMarkedPosL;
     int zzEndReadL = zzEndRead;
     char [] zzBufferL = zzBuffer;
-    char [] zzCMapL = ZZ_CMAP_EXT;
+    char [] zzCMapL = zzCharClasses.pages();
+    char [] zzCMapBlocksL = zzCharClasses.blocks();
+    byte [] zzLatin1L = zzCharClasses.latin1();
 
-    int [] zzTransL = ZZ_TRANS;
-    int [] zzRowMapL = ZZ_ROWMAP;
-    int [] zzAttrL = ZZ_ATTRIBUTE;
+    byte [] zzDFAL = ZZ_DFA;
+    byte [] zzLatin1DFAL = zzLatin1DFA;
+
+    zzSkippedTokens = 0;
+    zzCheckpoint = -1;
 
     while (true) {
       zzMarkedPosL = zzMarkedPos;
@@ -785,10 +1272,32 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
 
       zzCurrentPosL = zzCurrentPos = zzStartRead = zzMarkedPosL;
 
+      zzEndReadL = zzEndRead = zzWindowEnd(zzStartRead);
+
+      if (zzSequences != null) {
+        int zzLength = zzMatchSequence();
+        if (zzLength > 0) {
+          zzMarkedPos = zzCurrentPos = zzStartRead + zzLength;
+          if (zzLength > ZZ_BUFFERSIZE) {
+            // only matched when long tokens are discarded
+            zzSkippedTokens++;
+            continue;
+          }
+          if (zzKeep(zzSequenceType)) {
+            return zzSequenceType;
+          }
+          continue;
+        }
+        // get translated positions and possibly new buffer
+        zzCurrentPosL = zzMarkedPosL = zzStartRead;
+        zzBufferL = zzBuffer;
+        zzEndReadL = zzEndRead;
+      }
+
       zzState = ZZ_LEXSTATE[zzLexicalState];
 
       // set up zzAction for empty match case:
-      int zzAttributes = zzAttrL[zzState];
+      int zzAttributes = ZZ_ATTRIBUTE[zzState];
       if ( (zzAttributes & 1) == 1 ) {
         zzAction = zzState;
       }
@@ -796,10 +1305,42 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
 
       zzForAction: {
         while (true) {
+          int zzClass;
 
           if (zzCurrentPosL < zzEndReadL) {
-            zzInput = Character.codePointAt(zzBufferL, zzCurrentPosL, zzEndReadL);
-            zzCurrentPosL += Character.charCount(zzInput);
+            zzInput = zzBufferL[zzCurrentPosL];
+            if (zzInput < 0x100 && zzLatin1DFAL != null) {
+              // specialized engine: transition straight from the char
+              zzCurrentPosL++;
+              int zzNext = zzLatin1DFAL[(zzState << 8) | zzInput];
+              if (zzNext == -1) break zzForAction;
+              int zzNextState = zzNext & ((1 << ZZ_DFA_SHIFT) - 1);
+              if (zzNextState == zzState) {
+                // self loop: skip the rest of the Latin-1 chars looping on this state
+                while (zzCurrentPosL < zzEndReadL) {
+                  char zzChar = zzBufferL[zzCurrentPosL];
+                  if (zzChar >= 0x100 || zzLatin1DFAL[(zzState << 8) | zzChar] != zzNext) break;
+                  zzCurrentPosL++;
+                }
+              }
+              zzState = zzNextState;
+              if ( (zzNext & ZZ_DFA_ACCEPT) != 0 ) {
+                zzAction = zzState;
+                zzMarkedPosL = zzCurrentPosL;
+                if ( (zzNext & ZZ_DFA_FINAL) != 0 ) break zzForAction;
+              }
+              continue;
+            }
+            if (zzInput < 0x100) {
+              // Latin-1 fast path: cannot be a surrogate, classes from a single byte table
+              zzCurrentPosL++;
+              zzClass = zzLatin1L[zzInput];
+            }
+            else {
+              zzInput = Character.codePointAt(zzBufferL, zzCurrentPosL, zzEndReadL);
+              zzCurrentPosL += Character.charCount(zzInput);
+              zzClass = zzCMapL[(zzCMapBlocksL[zzInput >> 8] << 8) | (zzInput & 0xFF)];
+            }
           }
           else if (zzAtEOF) {
             zzInput = YYEOF;
@@ -822,17 +1363,37 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
             else {
               zzInput = Character.codePointAt(zzBufferL, zzCurrentPosL, zzEndReadL);
               zzCurrentPosL += Character.charCount(zzInput);
+              zzClass = zzCMapL[(zzCMapBlocksL[zzInput >> 8] << 8) | (zzInput & 0xFF)];
             }
           }
-          int zzNext = zzTransL[ zzRowMapL[zzState] + zzCMapL[zzInput] ];
+          int zzNext = zzDFAL[(zzState << ZZ_DFA_SHIFT) | zzClass];
           if (zzNext == -1) break zzForAction;
-          zzState = zzNext;
+          int zzNextState = zzNext & ((1 << ZZ_DFA_SHIFT) - 1);
+          if (zzNextState == zzState) {
+            // self loop: the rest of a run of BMP chars of this class leaves the state
+            // unchanged, skip it without going through the transition table
+            while (zzCurrentPosL < zzEndReadL) {
+              char zzChar = zzBufferL[zzCurrentPosL];
+              int zzRunClass;
+              if (zzChar < 0x100) {
+                zzRunClass = zzLatin1L[zzChar];
+              }
+              else if (Character.isSurrogate(zzChar)) {
+                break;
+              }
+              else {
+                zzRunClass = zzCMapL[(zzCMapBlocksL[zzChar >> 8] << 8) | (zzChar & 0xFF)];
+              }
+              if (zzRunClass != zzClass) break;
+              zzCurrentPosL++;
+            }
+          }
+          zzState = zzNextState;
 
-          zzAttributes = zzAttrL[zzState];
-          if ( (zzAttributes & 1) == 1 ) {
+          if ( (zzNext & ZZ_DFA_ACCEPT) != 0 ) {
             zzAction = zzState;
             zzMarkedPosL = zzCurrentPosL;
-            if ( (zzAttributes & 8) == 8 ) break zzForAction;
+            if ( (zzNext & ZZ_DFA_FINAL) != 0 ) break zzForAction;
           }
 
         }
@@ -841,37 +1402,47 @@ public final class CustomWordBoundaryStandardTokenizerImpl {
       // store back cached position
       zzMarkedPos = zzMarkedPosL;
 
+      if (zzDiscarding || (zzDiscard && zzMarkedPosL - zzStartRead > ZZ_BUFFERSIZE)) {
+        // a token too long to be returned, that still takes a position
+        zzDiscarding = false;
+        if (ZZ_ACTION[zzAction] != 1) {
+          zzSkippedTokens++;
+        }
+        continue;
+      }
+
       switch (zzAction < 0 ? zzAction : ZZ_ACTION[zzAction]) {
         case 1:
-          { /* Break so we don't hit fall-through warning: */ break; /* Not numeric, word, ideographic, hiragana, or SE Asian -- ignore it. */
+          { if (zzCheckpoints) zzCheckpoint();
+            /* Break so we don't hit fall-through warning: */ break; /* Not numeric, word, ideographic, hiragana, or SE Asian -- ignore it. */
           }
         case 9: break;
         case 2:
-          { return WORD_TYPE;
+          { if (zzKeep(WORD_TYPE)) return WORD_TYPE;
           }
         case 10: break;
         case 3:
-          { return HANGUL_TYPE;
+          { if (zzKeep(HANGUL_TYPE)) return HANGUL_TYPE;
           }
         case 11: break;
         case 4:
-          { return NUMERIC_TYPE;
+          { if (zzKeep(NUMERIC_TYPE)) return NUMERIC_TYPE;
           }
         case 12: break;
         case 5:
-          { return KATAKANA_TYPE;
+          { if (zzKeep(KATAKANA_TYPE)) return KATAKANA_TYPE;
           }
         case 13: break;
         case 6:
-          { return IDEOGRAPHIC_TYPE;
+          { if (zzKeep(IDEOGRAPHIC_TYPE)) return IDEOGRAPHIC_TYPE;
           }
         case 14: break;
         case 7:
-          { return HIRAGANA_TYPE;
+          { if (zzKeep(HIRAGANA_TYPE)) return HIRAGANA_TYPE;
           }
         case 15: break;
         case 8:
-          { return SOUTH_EAST_ASIAN_TYPE;
+          { if (zzKeep(SOUTH_EAST_ASIAN_TYPE)) return SOUTH_EAST_ASIAN_TYPE;
           }
         case 16: break;
         default:
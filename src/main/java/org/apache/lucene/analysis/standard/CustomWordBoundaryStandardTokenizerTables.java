@@ -0,0 +1,187 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Unpacked scanner tables of {@link CustomWordBoundaryStandardTokenizerImpl}.
+ * <p>
+ * Rather than decoding the packed string tables generated by JFlex when the
+ * scanner class is initialized, the unpacked tables are shipped as a binary
+ * resource and loaded with a single bulk read. Run {@link #main} to regenerate
+ * the resource whenever the scanner is regenerated.
+ * <p>
+ * Resource layout (big endian): magic, version, payload length in bytes, then
+ * the payload and its CRC32. The payload holds the lengths of the action, row
+ * map, transition and attribute <code>int</code> tables and of the character
+ * class blocks and pages <code>char</code> tables, followed by the tables
+ * themselves in that order. A resource that does not match its lengths or its
+ * checksum fails the initialization of the scanner.
+ */
+final class CustomWordBoundaryStandardTokenizerTables {
+
+  static final String RESOURCE = "CustomWordBoundaryStandardTokenizerTables.bin";
+
+  private static final int MAGIC = 0x43574254; // CWBT
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 3 * 4;
+
+  static final int[] ACTION;
+  static final int[] ROWMAP;
+  static final int[] TRANS;
+  static final int[] ATTRIBUTE;
+  static final char[] CMAP_BLOCKS;
+  static final char[] CMAP_PAGES;
+
+  /** number of tables */
+  private static final int TABLE_COUNT = 6;
+
+  static {
+    ByteBuffer payload;
+    try (InputStream in = CustomWordBoundaryStandardTokenizerTables.class.getResourceAsStream(RESOURCE)) {
+      if (in == null) {
+        throw new IOException("Missing resource " + RESOURCE);
+      }
+      payload = read(in);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot load scanner tables from " + RESOURCE, e);
+    }
+    ACTION = new int[payload.getInt()];
+    ROWMAP = new int[payload.getInt()];
+    TRANS = new int[payload.getInt()];
+    ATTRIBUTE = new int[payload.getInt()];
+    CMAP_BLOCKS = new char[payload.getInt()];
+    CMAP_PAGES = new char[payload.getInt()];
+    payload.asIntBuffer().get(ACTION).get(ROWMAP).get(TRANS).get(ATTRIBUTE);
+    payload.position(payload.position() + 4 * (ACTION.length + ROWMAP.length + TRANS.length + ATTRIBUTE.length));
+    payload.asCharBuffer().get(CMAP_BLOCKS).get(CMAP_PAGES);
+  }
+
+  private CustomWordBoundaryStandardTokenizerTables() {}
+
+  /**
+   * Reads and checks the tables, and returns their payload.
+   *
+   * @throws IOException if the tables are truncated, followed by extra bytes,
+   *         or do not match their lengths or their checksum
+   */
+  static ByteBuffer read(InputStream in) throws IOException {
+    ReadableByteChannel channel = Channels.newChannel(in);
+    ByteBuffer header = readFully(channel, ByteBuffer.allocate(HEADER_SIZE));
+    if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+      throw new IOException("Unsupported scanner tables format");
+    }
+    int length = header.getInt();
+    if (length < 4 * TABLE_COUNT) {
+      throw new IOException("Invalid scanner tables length " + length);
+    }
+    ByteBuffer payload = readFully(channel, ByteBuffer.allocate(length + 4));
+    CRC32 crc = new CRC32();
+    crc.update(payload.array(), 0, length);
+    if ((int) crc.getValue() != payload.getInt(length)) {
+      throw new IOException("Corrupted scanner tables: checksum mismatch");
+    }
+    if (channel.read(ByteBuffer.allocate(1)) >= 0) {
+      throw new IOException("Invalid scanner tables: unexpected bytes after the checksum");
+    }
+
+    long expected = 4 * TABLE_COUNT;
+    for (int i = 0; i < TABLE_COUNT; i++) {
+      int tableLength = payload.getInt(4 * i);
+      if (tableLength < 0) {
+        throw new IOException("Invalid scanner tables: negative length " + tableLength);
+      }
+      expected += (long) (i < 4 ? 4 : 2) * tableLength;
+    }
+    if (expected != length) {
+      throw new IOException("Invalid scanner tables: the tables take " + expected + " bytes, expected " + length);
+    }
+    payload.limit(length);
+    return payload;
+  }
+
+  private static ByteBuffer readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Truncated scanner tables");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Unpacks the tables generated by JFlex and writes them to the given file.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      throw new IllegalArgumentException("Usage: " + CustomWordBoundaryStandardTokenizerTables.class.getName() + " <output file>");
+    }
+    int[][] ints = {
+        CustomWordBoundaryStandardTokenizerImpl.zzUnpackAction(),
+        CustomWordBoundaryStandardTokenizerImpl.zzUnpackRowMap(),
+        CustomWordBoundaryStandardTokenizerImpl.zzUnpackTrans(),
+        CustomWordBoundaryStandardTokenizerImpl.zzUnpackAttribute()
+    };
+    CustomWordBoundaryCharClassTable cmap =
+        CustomWordBoundaryCharClassTable.unpack(CustomWordBoundaryStandardTokenizerImpl.ZZ_CMAP_PACKED);
+    char[][] chars = { cmap.blocks(), cmap.pages() };
+
+    int length = 4 * (ints.length + chars.length);
+    for (int[] table : ints) {
+      length += 4 * table.length;
+    }
+    for (char[] table : chars) {
+      length += 2 * table.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length + 4);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(length);
+    for (int[] table : ints) {
+      buffer.putInt(table.length);
+    }
+    for (char[] table : chars) {
+      buffer.putInt(table.length);
+    }
+    for (int[] table : ints) {
+      buffer.asIntBuffer().put(table);
+      buffer.position(buffer.position() + 4 * table.length);
+    }
+    for (char[] table : chars) {
+      buffer.asCharBuffer().put(table);
+      buffer.position(buffer.position() + 2 * table.length);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), HEADER_SIZE, length);
+    buffer.putInt((int) crc.getValue());
+    try (OutputStream out = new FileOutputStream(args[0])) {
+      out.write(buffer.array());
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+import org.elasticsearch.common.SuppressForbidden;
+
+/**
+ * Gives access to the text of the string-backed readers tokenizers are
+ * usually given: {@link StringReader}, and Lucene's package-private
+ * <code>ReusableStringReader</code>, which
+ * {@link org.apache.lucene.analysis.Analyzer#tokenStream(String, String)}
+ * uses for string values, e.g. for all the text fields indexed by
+ * Elasticsearch. {@link CustomWordBoundaryStandardTokenizer} copies it once
+ * and scans it like a {@link CustomWordBoundaryTextReader}.
+ * <p>
+ * The text is held in private fields, read reflectively. Under a security
+ * manager this needs <code>ReflectPermission "suppressAccessChecks"</code>,
+ * which the plugin policy grants. If the fields cannot be made accessible,
+ * e.g. without that permission or on a JVM whose {@link StringReader} has
+ * other fields, these readers are read like any other reader.
+ */
+final class CustomWordBoundaryStringReaders {
+
+  private static final Class<?> REUSABLE_STRING_READER;
+  /** string, position of the next char and end of the text of each reader, or null if not accessible */
+  private static final Field[] STRING_READER_FIELDS;
+  private static final Field[] REUSABLE_STRING_READER_FIELDS;
+
+  static {
+    Class<?> reusableStringReader;
+    try {
+      reusableStringReader = Class.forName("org.apache.lucene.analysis.ReusableStringReader", false,
+          org.apache.lucene.analysis.Analyzer.class.getClassLoader());
+    } catch (ClassNotFoundException | LinkageError e) {
+      reusableStringReader = null;
+    }
+    REUSABLE_STRING_READER = reusableStringReader;
+    STRING_READER_FIELDS = accessibleFields(StringReader.class, "str", "next", "length");
+    REUSABLE_STRING_READER_FIELDS = reusableStringReader == null ? null
+        : accessibleFields(reusableStringReader, "s", "pos", "size");
+  }
+
+  private CustomWordBoundaryStringReaders() {
+  }
+
+  /** returns the given fields of the given class, made accessible, or null if any cannot be */
+  @SuppressForbidden(reason = "reads the text of string readers to scan it in place")
+  private static Field[] accessibleFields(final Class<?> clazz, final String text, final String next, final String end) {
+    return AccessController.doPrivileged(new PrivilegedAction<Field[]>() {
+      @Override
+      public Field[] run() {
+        try {
+          Field[] fields = { clazz.getDeclaredField(text), clazz.getDeclaredField(next), clazz.getDeclaredField(end) };
+          if (fields[0].getType() != String.class || fields[1].getType() != int.class || fields[2].getType() != int.class) {
+            return null;
+          }
+          for (Field field : fields) {
+            field.setAccessible(true);
+          }
+          return fields;
+        } catch (NoSuchFieldException | RuntimeException e) {
+          // SecurityException, or the module system denying access
+          return null;
+        }
+      }
+    });
+  }
+
+  /**
+   * Copies the unread text of the given reader to <code>target</code>,
+   * without reading it.
+   *
+   * @return <code>false</code> if the reader is not a string-backed reader
+   *         whose text is accessible, or is closed
+   */
+  static boolean copyUnreadText(Reader reader, CustomWordBoundaryTextReader target) {
+    Field[] fields;
+    if (reader.getClass() == StringReader.class) {
+      fields = STRING_READER_FIELDS;
+    } else if (reader.getClass() == REUSABLE_STRING_READER) {
+      fields = REUSABLE_STRING_READER_FIELDS;
+    } else {
+      return false;
+    }
+    if (fields == null) {
+      return false;
+    }
+    try {
+      String text = (String) fields[0].get(reader);
+      if (text == null) {
+        return false;
+      }
+      int next = fields[1].getInt(reader);
+      int end = fields[2].getInt(reader);
+      if (next < 0 || next > end || end > text.length()) {
+        return false;
+      }
+      target.setValue(text, next, end);
+      return true;
+    } catch (IllegalAccessException e) {
+      return false;
+    }
+  }
+}
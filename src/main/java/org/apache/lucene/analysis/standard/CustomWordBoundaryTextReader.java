@@ -0,0 +1,153 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.io.Reader;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * A reusable {@link Reader} over text that is already in memory, either a
+ * <code>char[]</code> slice or a {@link CharSequence}.
+ * <p>
+ * {@link CustomWordBoundaryStandardTokenizer} detects this reader and scans
+ * its text in place, without copying it to the scanner buffer, refilling or
+ * compacting. A <code>char[]</code> slice is never copied; a
+ * {@link CharSequence} is copied once, with a single bulk copy for strings,
+ * into an array that is reused by the next value.
+ * <p>
+ * Any other reader can still consume it as a regular {@link Reader}.
+ */
+public final class CustomWordBoundaryTextReader extends Reader {
+
+  private static final char[] EMPTY = new char[0];
+
+  private char[] buffer = EMPTY;
+  private int pos;
+  private int end;
+
+  /** reused copy of the last {@link CharSequence} value */
+  private char[] copy = EMPTY;
+
+  /**
+   * Creates a reader without any text, see {@link #setValue(CharSequence)}
+   * and {@link #setValue(char[], int, int)}.
+   */
+  public CustomWordBoundaryTextReader() {
+  }
+
+  public CustomWordBoundaryTextReader(CharSequence text) {
+    setValue(text);
+  }
+
+  public CustomWordBoundaryTextReader(char[] buffer, int offset, int length) {
+    setValue(buffer, offset, length);
+  }
+
+  /**
+   * Reads the given text from the beginning.
+   */
+  public void setValue(CharSequence text) {
+    int length = text.length();
+    if (copy.length < length) {
+      copy = new char[ArrayUtil.oversize(length, 2)];
+    }
+    if (text instanceof String) {
+      ((String) text).getChars(0, length, copy, 0);
+    } else {
+      for (int i = 0; i < length; i++) {
+        copy[i] = text.charAt(i);
+      }
+    }
+    setValue(copy, 0, length);
+  }
+
+  /** reads the given part of a string, copied like {@link #setValue(CharSequence)} */
+  void setValue(String text, int start, int end) {
+    int length = end - start;
+    if (copy.length < length) {
+      copy = new char[ArrayUtil.oversize(length, 2)];
+    }
+    text.getChars(start, end, copy, 0);
+    setValue(copy, 0, length);
+  }
+
+  /**
+   * Reads the given slice from its beginning. The slice is not copied and
+   * must not be modified until it has been read.
+   */
+  public void setValue(char[] buffer, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > buffer.length - length) {
+      throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", buffer length=" + buffer.length);
+    }
+    this.buffer = buffer;
+    this.pos = offset;
+    this.end = offset + length;
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) {
+    if (pos >= end) {
+      return -1;
+    }
+    int n = Math.min(len, end - pos);
+    System.arraycopy(buffer, pos, cbuf, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public int read() {
+    return pos < end ? buffer[pos++] : -1;
+  }
+
+  @Override
+  public long skip(long n) {
+    int skipped = (int) Math.min(Math.max(n, 0), end - pos);
+    pos += skipped;
+    return skipped;
+  }
+
+  @Override
+  public boolean ready() {
+    return true;
+  }
+
+  @Override
+  public void close() {
+    buffer = EMPTY;
+    pos = end = 0;
+  }
+
+  /** the buffer holding the unread text, must not be modified */
+  char[] buffer() {
+    return buffer;
+  }
+
+  /** start of the unread text in {@link #buffer()} */
+  int position() {
+    return pos;
+  }
+
+  /** end of the text in {@link #buffer()} */
+  int end() {
+    return end;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * A least recently used cache of the tokens of short texts, for search time
+ * analysis of repeated query strings, see
+ * {@link CustomWordBoundaryStandardTokenizer#setCache(CustomWordBoundaryTokenCache, String)}.
+ * <p>
+ * Entries are keyed by the text, a fingerprint of the tokenizer settings and
+ * the character class table itself, compared by identity rather than by its
+ * fingerprint so that two tables can never share entries. A table replaced
+ * by a reload stays reachable until its entries are evicted. Entries hold the tokens packed in two arrays: their terms, and their offsets,
+ * types and position increments. The cache is bounded both by its number of
+ * entries and by an estimate of their size in bytes. It can be shared by
+ * any number of tokenizers and threads.
+ */
+public final class CustomWordBoundaryTokenCache {
+
+  /** texts longer than this, in chars, are never cached */
+  public static final int MAX_TEXT_LENGTH = 1024;
+
+  /** estimated size in bytes of an entry, besides its text and tokens */
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private final int maxEntries;
+  private final long maxBytes;
+
+  private final LinkedHashMap<Key, Tokens> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param maxEntries  the maximum number of cached texts
+   * @param maxBytes    the maximum estimated size of the cached texts and their tokens
+   */
+  public CustomWordBoundaryTokenCache(int maxEntries, long maxBytes) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries must be greater than zero");
+    }
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("maxBytes must be greater than zero");
+    }
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /** returns the tokens of the given text, or null */
+  synchronized Tokens get(Key key) {
+    Tokens tokens = entries.get(key);
+    if (tokens == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return tokens;
+  }
+
+  /** caches the tokens of the given text, evicting the least recently used texts if needed */
+  synchronized void put(Key key, Tokens tokens) {
+    long size = size(key, tokens);
+    if (size > maxBytes) {
+      return;
+    }
+    Tokens previous = entries.put(key, tokens);
+    if (previous != null) {
+      bytes -= size(key, previous);
+    }
+    bytes += size;
+    Iterator<Map.Entry<Key, Tokens>> eldest = entries.entrySet().iterator();
+    while (entries.size() > maxEntries || bytes > maxBytes) {
+      Map.Entry<Key, Tokens> entry = eldest.next();
+      bytes -= size(entry.getKey(), entry.getValue());
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  private static long size(Key key, Tokens tokens) {
+    return ENTRY_OVERHEAD + 2L * key.text.length() + 2L * tokens.terms.length + 4L * tokens.data.length;
+  }
+
+  /** Returns the number of lookups that found the tokens of their text */
+  public synchronized long hitCount() {
+    return hits;
+  }
+
+  /** Returns the number of lookups that did not find the tokens of their text */
+  public synchronized long missCount() {
+    return misses;
+  }
+
+  /** Returns the number of texts removed to keep the cache within its bounds */
+  public synchronized long evictionCount() {
+    return evictions;
+  }
+
+  /** Returns the number of cached texts */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the estimated size in bytes of the cached texts and their tokens */
+  public synchronized long sizeInBytes() {
+    return bytes;
+  }
+
+  /** Removes all the cached texts, counters are kept */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "token cache(entries=" + entries.size() + "/" + maxEntries + ", bytes=" + bytes + "/" + maxBytes
+        + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ")";
+  }
+
+  /** a text, the fingerprint of the settings of the tokenizer and its table */
+  static final class Key {
+    private final String fingerprint;
+    private final CustomWordBoundaryCharClassTable table;
+    private final String text;
+    private final int hash;
+
+    Key(String fingerprint, CustomWordBoundaryCharClassTable table, char[] buffer, int offset, int length) {
+      this.fingerprint = fingerprint;
+      this.table = table;
+      this.text = new String(buffer, offset, length);
+      this.hash = 31 * (31 * fingerprint.hashCode() + System.identityHashCode(table)) + text.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj instanceof Key == false) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash && table == other.table && text.equals(other.text)
+          && fingerprint.equals(other.fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** number of ints per token in {@link Tokens#data} */
+  static final int TOKEN_INTS = 5;
+
+  /**
+   * The tokens of a text: for each token, the end of its term in
+   * <code>terms</code>, its start and end offsets, its type and its position
+   * increment in <code>data</code>.
+   */
+  static final class Tokens {
+    final char[] terms;
+    final int[] data;
+    final int count;
+    final int finalOffset;
+    final int finalSkippedPositions;
+
+    private Tokens(char[] terms, int[] data, int count, int finalOffset, int finalSkippedPositions) {
+      this.terms = terms;
+      this.data = data;
+      this.count = count;
+      this.finalOffset = finalOffset;
+      this.finalSkippedPositions = finalSkippedPositions;
+    }
+  }
+
+  /** records the tokens of a text, reusable */
+  static final class Recorder {
+    private char[] terms = new char[64];
+    private int termsLength;
+    private int[] data = new int[8 * TOKEN_INTS];
+    private int count;
+
+    void clear() {
+      termsLength = count = 0;
+    }
+
+    void add(char[] term, int termLength, int start, int end, int type, int positionIncrement) {
+      terms = ArrayUtil.grow(terms, termsLength + termLength);
+      System.arraycopy(term, 0, terms, termsLength, termLength);
+      termsLength += termLength;
+      data = ArrayUtil.grow(data, (count + 1) * TOKEN_INTS);
+      int i = count++ * TOKEN_INTS;
+      data[i] = termsLength;
+      data[i + 1] = start;
+      data[i + 2] = end;
+      data[i + 3] = type;
+      data[i + 4] = positionIncrement;
+    }
+
+    Tokens build(int finalOffset, int finalSkippedPositions) {
+      return new Tokens(Arrays.copyOf(terms, termsLength), Arrays.copyOf(data, count * TOKEN_INTS), count,
+          finalOffset, finalSkippedPositions);
+    }
+  }
+}
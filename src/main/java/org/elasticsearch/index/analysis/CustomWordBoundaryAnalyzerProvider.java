@@ -0,0 +1,66 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.analysis;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.analysis.standard.CustomWordBoundaryAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.assistedinject.Assisted;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettingsService;
+import org.elasticsearch.indices.analysis.CustomWordBoundaryIndicesAnalysis;
+
+/**
+ * The <code>standard_customwb</code> analyzer: the custom word boundary
+ * tokenizer followed by <code>lowercase</code>, <code>stop</code> and
+ * optionally <code>asciifolding</code>, fused into a single token stream.
+ */
+public class CustomWordBoundaryAnalyzerProvider extends AbstractIndexAnalyzerProvider<CustomWordBoundaryAnalyzer> {
+
+  private final CustomWordBoundaryAnalyzer analyzer;
+
+  @Inject
+  public CustomWordBoundaryAnalyzerProvider(Index index, IndexSettingsService indexSettingsService, Environment env,
+                                            CustomWordBoundaryIndicesAnalysis indicesAnalysis, @Assisted String name, @Assisted Settings settings) {
+    super(index, indexSettingsService.getSettings(), name, settings);
+    List<String> rules = Analysis.getWordList(env, settings, "mappings");
+    if (rules == null) {
+      rules = Collections.emptyList();
+    }
+    CharArraySet stopWords = Analysis.parseStopWords(env, settings, CharArraySet.EMPTY_SET);
+    analyzer = new CustomWordBoundaryAnalyzer(
+        indicesAnalysis.charClassTable(CustomWordBoundaryStandardTokenizerFactory.parseRules(rules)), stopWords,
+        settings.getAsBoolean("lowercase", true), settings.getAsBoolean("asciifolding", false));
+    analyzer.setVersion(version);
+    analyzer.setMaxTokenLength(settings.getAsInt("max_token_length", StandardAnalyzer.DEFAULT_MAX_TOKEN_LENGTH));
+    analyzer.setScannerPool(indicesAnalysis.scannerPool());
+  }
+
+  @Override
+  public CustomWordBoundaryAnalyzer get() {
+    return this.analyzer;
+  }
+}
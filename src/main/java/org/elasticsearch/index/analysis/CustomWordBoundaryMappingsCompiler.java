@@ -0,0 +1,63 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.index.analysis;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.lucene.analysis.standard.CustomWordBoundaryCharClassTableFile;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.io.PathUtils;
+
+/**
+ * Compiles a file of mapping rules, one per line as in <code>mappings_path</code>,
+ * into a character class table file that tokenizers load with the
+ * <code>mappings_table</code> setting, see {@link CustomWordBoundaryCharClassTableFile}.
+ * <p>
+ * Usage: <code>CustomWordBoundaryMappingsCompiler &lt;rules file&gt; &lt;table file&gt;</code>
+ */
+public final class CustomWordBoundaryMappingsCompiler {
+
+  private CustomWordBoundaryMappingsCompiler() {}
+
+  /**
+   * Parses the rules of the given file, lines starting with <code>#</code>
+   * being ignored, and writes their compiled table to the given file.
+   */
+  public static void compile(Path rulesFile, Path tableFile) throws IOException {
+    List<String> rules;
+    try (Reader reader = FileSystemUtils.newBufferedReader(rulesFile.toUri().toURL(), StandardCharsets.UTF_8)) {
+      rules = Analysis.loadWordList(reader, "#");
+    }
+    CustomWordBoundaryCharClassTableFile.write(CustomWordBoundaryStandardTokenizerFactory.parseRules(rules), tableFile);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      throw new IllegalArgumentException("Usage: " + CustomWordBoundaryMappingsCompiler.class.getName()
+          + " <rules file> <table file>");
+    }
+    compile(PathUtils.get(args[0]), PathUtils.get(args[1]));
+  }
+}
@@ -19,21 +19,25 @@
 
 package org.elasticsearch.index.analysis;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryCharClassTable;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryScannerPool;
 import org.apache.lucene.analysis.standard.CustomWordBoundaryStandardTokenizer;
 import org.apache.lucene.analysis.standard.CustomWordBoundaryStandardTokenizerImpl;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryTokenCache;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.assistedinject.Assisted;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.Index;
+import org.elasticsearch.indices.analysis.CustomWordBoundaryIndicesAnalysis;
+import org.elasticsearch.indices.analysis.CustomWordBoundaryMappingsWatcher;
 import org.elasticsearch.index.settings.IndexSettingsService;
 import org.elasticsearch.common.settings.Settings;
 import org.apache.lucene.util.Version;
@@ -42,61 +46,189 @@ import org.apache.lucene.util.Version;
 @AnalysisSettingsRequired
 public class CustomWordBoundaryStandardTokenizerFactory extends AbstractTokenizerFactory {
 
-  private final Map<Character,Character> characterMappings;
+  private final CustomWordBoundaryCharClassTable characterClasses;
+
+  /** mappings reloaded when their file changes, or null */
+  private final CustomWordBoundaryMappingsWatcher mappingsWatcher;
+
+  private final List<String> tokenTypes;
+
+  private final int maxTokenLength;
+
+  private final boolean discardLongTokens;
+
+  private final boolean specializedEngine;
+
+  private final ForkJoinPool parallelPool;
+
+  private final int parallelThreshold;
+
+  private final CustomWordBoundaryTokenCache tokenCache;
+
+  private final CustomWordBoundaryScannerPool scannerPool;
+
+  /** identifies the settings that change the tokens, for the token cache */
+  private final String cacheFingerprint;
 
   @Inject
-  public CustomWordBoundaryStandardTokenizerFactory(Index index, IndexSettingsService indexSettingsService, Environment environment, @Assisted String name, @Assisted Settings settings) {
+  public CustomWordBoundaryStandardTokenizerFactory(Index index, IndexSettingsService indexSettingsService, Environment environment,
+                                                    CustomWordBoundaryIndicesAnalysis indicesAnalysis, @Assisted String name, @Assisted Settings settings) {
     super(index, indexSettingsService.getSettings(), name, settings);
 
-    List<String> rules = Analysis.getWordList(environment, settings, "mappings");
-    if (rules == null) {
-      throw new IllegalArgumentException("mapping requires either `mappings` or `mappings_path` to be configured");
+    if (settings.getAsBoolean("reloadable", false)) {
+      // search analyzers pick up changes to the file without reopening the index
+      String path = settings.get("mappings_path");
+      if (path == null) {
+        throw new IllegalArgumentException("reloadable mappings require `mappings_path` to be configured");
+      }
+      try {
+        mappingsWatcher = indicesAnalysis.mappingsWatcher(environment.configFile().resolve(path), index);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("failed to load mappings [" + path + "]", e);
+      }
+      characterClasses = mappingsWatcher.table().get();
+    } else if (settings.get("mappings_table") != null) {
+      // compiled offline, see CustomWordBoundaryMappingsCompiler
+      String path = settings.get("mappings_table");
+      try {
+        characterClasses = indicesAnalysis.charClassTable(environment.configFile().resolve(path));
+      } catch (IOException e) {
+        throw new IllegalArgumentException("failed to load mappings table [" + path + "]", e);
+      }
+      mappingsWatcher = null;
+    } else {
+      List<String> rules = Analysis.getWordList(environment, settings, "mappings");
+      if (rules == null) {
+        throw new IllegalArgumentException("mapping requires either `mappings`, `mappings_path` or `mappings_table` to be configured");
+      }
+      mappingsWatcher = null;
+      characterClasses = indicesAnalysis.charClassTable(parseRules(rules));
     }
+    scannerPool = indicesAnalysis.scannerPool();
+
+    String[] types = settings.getAsArray("types", null);
+    tokenTypes = types == null ? null : Arrays.asList(types);
+    // fail on unknown types when the index is created rather than on the first document
+    CustomWordBoundaryStandardTokenizer.tokenTypeMask(tokenTypes);
 
-    Map<Character, Character> map = new HashMap<>();
-    parseRules(rules, map);
-    characterMappings = Collections.unmodifiableMap(map);
+    maxTokenLength = settings.getAsInt("max_token_length", StandardAnalyzer.DEFAULT_MAX_TOKEN_LENGTH);
+    discardLongTokens = settings.getAsBoolean("discard_long_tokens", false);
+
+    String engine = settings.get("engine", "table");
+    if ("specialized".equals(engine)) {
+      specializedEngine = true;
+    } else if ("table".equals(engine)) {
+      specializedEngine = false;
+    } else {
+      throw new IllegalArgumentException("Unknown engine [" + engine + "] for [" + name + "], expected [table] or [specialized]");
+    }
+
+    // documents of at least this many chars are scanned in parallel, when they are given as strings
+    parallelThreshold = settings.getAsInt("parallel_threshold", -1);
+    parallelPool = parallelThreshold > 0 ? indicesAnalysis.parallelPool() : null;
+
+    // meant for search analyzers: the tokens of repeated short texts are cached on the node
+    tokenCache = settings.getAsBoolean("cache", false) ? indicesAnalysis.tokenCache() : null;
+    cacheFingerprint = tokenTypes + "|" + maxTokenLength + "|" + discardLongTokens;
+  }
+
+  /**
+   * Returns the character class table shared by the tokenizers of this factory.
+   */
+  public CustomWordBoundaryCharClassTable charClassTable() {
+    return mappingsWatcher == null ? characterClasses : mappingsWatcher.table().get();
+  }
+
+  /**
+   * Returns the mappings of this factory when they are reloadable, null otherwise.
+   */
+  public CustomWordBoundaryMappingsWatcher mappingsWatcher() {
+    return mappingsWatcher;
   }
 
   @Override
   public Tokenizer create() {
     if (version.onOrAfter(Version.LUCENE_5_5_0)) {
-      return new CustomWordBoundaryStandardTokenizer(characterMappings);
+      CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(charClassTable());
+      tokenizer.setTokenTypes(tokenTypes);
+      tokenizer.setMaxTokenLength(maxTokenLength);
+      tokenizer.setDiscardLongTokens(discardLongTokens);
+      tokenizer.setSpecializedEngine(specializedEngine);
+      tokenizer.setParallel(parallelPool, parallelThreshold);
+      tokenizer.setCache(tokenCache, cacheFingerprint);
+      tokenizer.setScannerPool(scannerPool);
+      if (mappingsWatcher != null) {
+        tokenizer.setReloadableTable(mappingsWatcher.table());
+      }
+      return tokenizer;
     } else {
       return new StandardTokenizer();
     }
   }
 
-  // source => target
-  private static Pattern rulePattern = Pattern.compile("(.*)\\s*=>\\s*(.*)\\s*$");
-
   /**
-   * parses a list of MappingCharFilter style rules into a normalize char map
+   * parses a list of MappingCharFilter style rules into character class overrides
    */
-  private void parseRules(List<String> rules, Map<Character, Character> map) {
+  public static CustomWordBoundaryCharClassTable.Builder parseRules(List<String> rules) {
+    CustomWordBoundaryCharClassTable.Builder mappings = new CustomWordBoundaryCharClassTable.Builder();
     for (String rule : rules) {
-      Matcher m = rulePattern.matcher(rule);
-      if (!m.find())
+      // source => target, split on the last arrow
+      int arrow = rule.lastIndexOf("=>");
+      if (arrow < 0)
         throw new RuntimeException("Invalid Mapping Rule : [" + rule + "]");
-      String lhs = parseString(m.group(1).trim());
-      String rhs = parseString(m.group(2).trim());
-      if (lhs == null || rhs == null || lhs.length() > 1)
+      String source = rule.substring(0, arrow).trim();
+      String rhs = parseString(rule.substring(arrow + 2).trim());
+      // a general category, e.g. [:Sc:], or a range of code points, e.g. [a-z]
+      boolean category = source.length() > 4 && source.startsWith("[:") && source.endsWith(":]");
+      boolean range = !category && source.length() > 2 && source.startsWith("[") && source.endsWith("]");
+      String lhs = category ? source.substring(2, source.length() - 2)
+          : parseString(range ? source.substring(1, source.length() - 1) : source);
+      if (lhs.isEmpty() || rhs.isEmpty())
         throw new RuntimeException("Invalid Mapping Rule : [" + rule + "]. Illegal mapping.");
 
+      char wbClass;
       try {
-        map.put(lhs.charAt(0), translateWordBoundary(rhs));
+        wbClass = translateWordBoundary(rhs);
       }
       catch (IllegalArgumentException iae) {
         throw new RuntimeException("Invalid Mapping Rule : [" + rule + "]. Unrecognized WordBoundary property value");
       }
+
+      // a category, a range of code points, a single code point, possibly written as a surrogate pair,
+      // or a sequence kept as a single token, such as "x-y"
+      int codePoints = lhs.codePointCount(0, lhs.length());
+      int first = lhs.codePointAt(0);
+      int last = lhs.codePointBefore(lhs.length());
+      if (category) {
+        try {
+          mappings.mapCategory(lhs, wbClass);
+        }
+        catch (IllegalArgumentException iae) {
+          throw new RuntimeException("Invalid Mapping Rule : [" + rule + "]. Unknown general category");
+        }
+      } else if (range) {
+        if (codePoints != 3 || lhs.charAt(Character.charCount(first)) != '-' || first > last)
+          throw new RuntimeException("Invalid Mapping Rule : [" + rule + "]. Invalid range, expected [x-y] with x <= y");
+        mappings.mapRange(first, last, wbClass);
+      } else if (codePoints == 1) {
+        mappings.map(first, wbClass);
+      } else {
+        try {
+          mappings.sequence(lhs, wbClass);
+        }
+        catch (IllegalArgumentException iae) {
+          throw new RuntimeException("Invalid Mapping Rule : [" + rule + "]. Sequences can only be mapped to L or N");
+        }
+      }
     }
+    return mappings;
   }
 
   public static enum WBProperty {
     L, N, EXNL, MNL, MN, ML, SQ, DQ, BRK
   }
 
-  private Character translateWordBoundary(String mapping) throws IllegalArgumentException {
+  private static Character translateWordBoundary(String mapping) throws IllegalArgumentException {
     WBProperty property = WBProperty.valueOf(mapping);
     switch (property) {
       case L:
@@ -125,8 +257,8 @@ public class CustomWordBoundaryStandardTokenizerFactory extends AbstractTokenize
   /**
    * Copied from {@link org.elasticsearch.index.analysis.MappingCharFilterFactory}
    */
-  char[] out = new char[256];
-  private String parseString(String s) {
+  private static String parseString(String s) {
+    char[] out = new char[s.length()];
     int readPos = 0;
     int len = s.length();
     int writePos = 0;
@@ -0,0 +1,414 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.indices.analysis;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryCharClassTable;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryCharClassTableFile;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryScannerPool;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryStandardTokenizer;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryTokenCache;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Singleton;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.analysis.PreBuiltTokenizerFactoryFactory;
+import org.elasticsearch.index.analysis.TokenizerFactory;
+import org.elasticsearch.indices.IndicesLifecycle;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.FileWatcher;
+import org.elasticsearch.watcher.ResourceWatcherService;
+import org.elasticsearch.watcher.WatcherHandle;
+
+/**
+ * Node level state shared by all the indices using the custom word boundary
+ * standard tokenizer.
+ * <p>
+ * Character class tables are deduplicated across indices: tokenizer factories
+ * configured with the same effective mappings, or with the same table file,
+ * share one compiled table. Tables are only weakly referenced from here, so a
+ * table is released as soon as the last index using it is closed.
+ * <p>
+ * The {@link PreBuiltCustomWordBoundaryTokenizers} are also compiled and
+ * registered here, as node level tokenizers available to every index.
+ * <p>
+ * Unless <code>customwb.warmup</code> is set to <code>false</code>, the scanner
+ * is also initialized in the background when the node starts, so that the first
+ * document analyzed does not pay for loading its tables.
+ * <p>
+ * This is a node service: the threads it starts are stopped when the node is
+ * closed.
+ */
+@Singleton
+public class CustomWordBoundaryIndicesAnalysis extends AbstractLifecycleComponent<CustomWordBoundaryIndicesAnalysis> {
+
+  /** tables by mappings, or by table file and modification time */
+  private final Map<Object, TableReference> tables = new HashMap<>();
+  private final ReferenceQueue<CustomWordBoundaryCharClassTable> released = new ReferenceQueue<>();
+
+  /** tables of the prebuilt tokenizers, strongly referenced for the life of the node */
+  private final Map<PreBuiltCustomWordBoundaryTokenizers, CustomWordBoundaryCharClassTable> preBuiltTables =
+      new EnumMap<>(PreBuiltCustomWordBoundaryTokenizers.class);
+
+  public static final String WARMUP_SETTING = "customwb.warmup";
+
+  /** number of threads scanning large documents in parallel, see {@link #parallelPool()} */
+  public static final String PARALLEL_THREADS_SETTING = "customwb.parallel.threads";
+
+  /** pool scanning large documents in parallel, created on first use and shut down on close */
+  private ForkJoinPool parallelPool;
+
+  /** thread warming up the scanner, if started */
+  private Thread warmupThread;
+
+  /** maximum number of texts in the token cache, see {@link #tokenCache()} */
+  public static final String CACHE_MAX_ENTRIES_SETTING = "customwb.cache.max_entries";
+
+  /** maximum size of the token cache, see {@link #tokenCache()} */
+  public static final String CACHE_MAX_SIZE_SETTING = "customwb.cache.max_size";
+
+  /** cache of the tokens of short texts, created on first use */
+  private CustomWordBoundaryTokenCache tokenCache;
+
+  /** maximum number of idle scanners, see {@link #scannerPool()} */
+  public static final String SCANNER_POOL_SIZE_SETTING = "customwb.scanner_pool.size";
+
+  /** scanners borrowed by the tokenizers for each input, or null if they hold their own */
+  private final CustomWordBoundaryScannerPool scannerPool;
+
+  /** watches the mapping files of reloadable tokenizers, bound on any real node */
+  private ResourceWatcherService resourceWatcherService;
+
+  /** mappings of the reloadable tokenizers, by file, watched as long as an index uses them */
+  private final Map<Path, WatchedMappings> mappingsWatchers = new HashMap<>();
+
+  private static final String WARMUP_TEXT = "Warm up the custom word boundary scanner: 42 tokens, café, 日本語 ";
+
+  @Inject
+  public CustomWordBoundaryIndicesAnalysis(Settings settings, IndicesAnalysisService indicesAnalysisService) {
+    super(settings);
+
+    int scannerPoolSize = settings.getAsInt(SCANNER_POOL_SIZE_SETTING, 0);
+    scannerPool = scannerPoolSize > 0 ? new CustomWordBoundaryScannerPool(scannerPoolSize) : null;
+
+    for (PreBuiltCustomWordBoundaryTokenizers preBuilt : PreBuiltCustomWordBoundaryTokenizers.values()) {
+      final String name = preBuilt.tokenizerName();
+      final CustomWordBoundaryCharClassTable table = charClassTable(preBuilt.mappings());
+      preBuiltTables.put(preBuilt, table);
+      indicesAnalysisService.tokenizerFactories().put(name, new PreBuiltTokenizerFactoryFactory(new TokenizerFactory() {
+        @Override
+        public String name() {
+          return name;
+        }
+
+        @Override
+        public Tokenizer create() {
+          CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(table);
+          tokenizer.setScannerPool(scannerPool);
+          return tokenizer;
+        }
+      }));
+    }
+  }
+
+  @Override
+  protected void doStart() {
+    if (settings.getAsBoolean(WARMUP_SETTING, true)) {
+      warmupThread = EsExecutors.daemonThreadFactory(settings, "customwb_warmup").newThread(new Runnable() {
+        @Override
+        public void run() {
+          warmUp();
+        }
+      });
+      warmupThread.start();
+    }
+  }
+
+  @Override
+  protected void doStop() {
+  }
+
+  @Override
+  protected void doClose() {
+    if (warmupThread != null) {
+      try {
+        warmupThread.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      warmupThread = null;
+    }
+    ForkJoinPool pool;
+    synchronized (this) {
+      pool = parallelPool;
+      parallelPool = null;
+    }
+    if (pool != null && ThreadPool.terminate(pool, 10, TimeUnit.SECONDS) == false) {
+      logger.warn("the parallel scan pool did not terminate in time");
+    }
+    synchronized (this) {
+      for (WatchedMappings watched : mappingsWatchers.values()) {
+        watched.handle.stop();
+      }
+      mappingsWatchers.clear();
+    }
+  }
+
+  /**
+   * Loads the scanner tables and runs a short text through a tokenizer.
+   */
+  private void warmUp() {
+    long start = System.nanoTime();
+    try (Tokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT)) {
+      tokenizer.setReader(new StringReader(WARMUP_TEXT));
+      tokenizer.reset();
+      while (tokenizer.incrementToken()) {
+        // nothing to do
+      }
+      tokenizer.end();
+    } catch (IOException | RuntimeException e) {
+      logger.warn("failed to warm up the custom word boundary tokenizer", e);
+      return;
+    }
+    logger.debug("warmed up the custom word boundary tokenizer in [{}]", TimeValue.timeValueNanos(System.nanoTime() - start));
+  }
+
+  /**
+   * Returns the pool that scans large documents in parallel, shared by all
+   * the tokenizers of this node. Its threads are daemon threads, idle
+   * unless a tokenizer is configured with a <code>parallel_threshold</code>.
+   *
+   * @throws IllegalStateException if the node is closed
+   */
+  public synchronized ForkJoinPool parallelPool() {
+    if (lifecycle.closed()) {
+      throw new IllegalStateException("cannot scan in parallel on a closed node");
+    }
+    if (parallelPool == null) {
+      int threads = settings.getAsInt(PARALLEL_THREADS_SETTING, EsExecutors.boundedNumberOfProcessors(settings));
+      parallelPool = new ForkJoinPool(threads);
+      logger.debug("created the parallel scan pool with [{}] threads", threads);
+    }
+    return parallelPool;
+  }
+
+  /**
+   * Returns the cache of the tokens of short texts, such as query strings,
+   * shared by all the tokenizers of this node that are configured with
+   * <code>cache: true</code>.
+   */
+  public synchronized CustomWordBoundaryTokenCache tokenCache() {
+    if (tokenCache == null) {
+      int maxEntries = settings.getAsInt(CACHE_MAX_ENTRIES_SETTING, 10000);
+      ByteSizeValue maxSize = settings.getAsBytesSize(CACHE_MAX_SIZE_SETTING, new ByteSizeValue(16, ByteSizeUnit.MB));
+      tokenCache = new CustomWordBoundaryTokenCache(maxEntries, maxSize.bytes());
+      logger.debug("created the token cache with at most [{}] entries and [{}]", maxEntries, maxSize);
+    }
+    return tokenCache;
+  }
+
+  /**
+   * Returns the pool of scanners shared by the tokenizers of this node, so
+   * that the number of scanners depends on the number of inputs tokenized
+   * concurrently rather than on the number of indices and analyzers, or
+   * <code>null</code> if <code>customwb.scanner_pool.size</code> is 0 and
+   * each tokenizer holds its own scanner.
+   */
+  public CustomWordBoundaryScannerPool scannerPool() {
+    return scannerPool;
+  }
+
+  @Inject(optional = true)
+  public void setResourceWatcherService(ResourceWatcherService resourceWatcherService) {
+    this.resourceWatcherService = resourceWatcherService;
+  }
+
+  @Inject(optional = true)
+  public void setIndicesLifecycle(IndicesLifecycle indicesLifecycle) {
+    indicesLifecycle.addListener(new IndicesLifecycle.Listener() {
+      @Override
+      public void afterIndexClosed(Index index, Settings indexSettings) {
+        releaseMappingsWatchers(index);
+      }
+    });
+  }
+
+  /**
+   * Returns the mappings of the given file, reloaded when it changes, for a
+   * tokenizer of the given index. The file is loaded and watched once per
+   * node, whatever the number of tokenizers using it, until
+   * {@link #releaseMappingsWatchers(Index)} has been called for all the
+   * indices using it, which the node does when they are closed.
+   */
+  public synchronized CustomWordBoundaryMappingsWatcher mappingsWatcher(Path path, Index index) throws IOException {
+    path = path.toAbsolutePath().normalize();
+    WatchedMappings watched = mappingsWatchers.get(path);
+    if (watched == null) {
+      if (resourceWatcherService == null) {
+        throw new IllegalStateException("cannot watch mappings [" + path + "] without a resource watcher service");
+      }
+      CustomWordBoundaryMappingsWatcher watcher = new CustomWordBoundaryMappingsWatcher(path, this, logger);
+      FileWatcher fileWatcher = new FileWatcher(path);
+      fileWatcher.addListener(watcher);
+      watched = new WatchedMappings(watcher, resourceWatcherService.add(fileWatcher));
+      mappingsWatchers.put(path, watched);
+      logger.debug("watching mappings [{}]", path);
+    }
+    watched.indices.add(index);
+    return watched.watcher;
+  }
+
+  /**
+   * Releases the mappings used by the given index, and stops watching the
+   * files no other index uses.
+   */
+  public synchronized void releaseMappingsWatchers(Index index) {
+    for (Iterator<Map.Entry<Path, WatchedMappings>> it = mappingsWatchers.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Path, WatchedMappings> entry = it.next();
+      WatchedMappings watched = entry.getValue();
+      if (watched.indices.remove(index) && watched.indices.isEmpty()) {
+        watched.handle.stop();
+        it.remove();
+        logger.debug("stopped watching mappings [{}]", entry.getKey());
+      }
+    }
+  }
+
+  /**
+   * Returns the number of mapping files currently watched by this node.
+   */
+  public synchronized int mappingsWatcherCount() {
+    return mappingsWatchers.size();
+  }
+
+  /**
+   * Returns the compiled table of a prebuilt tokenizer.
+   */
+  public CustomWordBoundaryCharClassTable charClassTable(PreBuiltCustomWordBoundaryTokenizers preBuilt) {
+    return preBuiltTables.get(preBuilt);
+  }
+
+  /**
+   * Returns the compiled table for the given mappings, reusing the table of
+   * any other index configured with the same effective mappings. The given
+   * builder is kept as a key and must not be modified afterwards.
+   */
+  public CustomWordBoundaryCharClassTable charClassTable(CustomWordBoundaryCharClassTable.Builder mappings) {
+    if (mappings.isEmpty()) {
+      return CustomWordBoundaryCharClassTable.DEFAULT;
+    }
+    synchronized (tables) {
+      expungeReleasedTables();
+      TableReference reference = tables.get(mappings);
+      CustomWordBoundaryCharClassTable table = reference == null ? null : reference.get();
+      if (table == null) {
+        table = mappings.build();
+        tables.put(mappings, new TableReference(mappings, table, released));
+        logger.debug("compiled character class table [{}] ({} pages)", table.fingerprint(), table.pageCount());
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Returns the table compiled in the given file, reusing the table of any
+   * other index configured with the same file, as long as it did not change.
+   *
+   * @throws IOException if the file cannot be read, or is not a valid table
+   */
+  public CustomWordBoundaryCharClassTable charClassTable(Path tableFile) throws IOException {
+    tableFile = tableFile.toAbsolutePath().normalize();
+    String key = tableFile + "@" + Files.getLastModifiedTime(tableFile).toMillis();
+    synchronized (tables) {
+      expungeReleasedTables();
+      TableReference reference = tables.get(key);
+      CustomWordBoundaryCharClassTable table = reference == null ? null : reference.get();
+      if (table == null) {
+        long start = System.nanoTime();
+        table = CustomWordBoundaryCharClassTableFile.read(tableFile);
+        tables.put(key, new TableReference(key, table, released));
+        logger.debug("loaded character class table [{}] ({} pages) from [{}] in [{}]", table.fingerprint(),
+            table.pageCount(), tableFile, TimeValue.timeValueNanos(System.nanoTime() - start));
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Returns the number of distinct compiled tables currently held by this node.
+   */
+  public int charClassTableCount() {
+    synchronized (tables) {
+      expungeReleasedTables();
+      return tables.size();
+    }
+  }
+
+  private void expungeReleasedTables() {
+    TableReference reference;
+    while ((reference = (TableReference) released.poll()) != null) {
+      if (tables.get(reference.key) == reference) {
+        tables.remove(reference.key);
+      }
+    }
+  }
+
+  private static final class TableReference extends WeakReference<CustomWordBoundaryCharClassTable> {
+    private final Object key;
+
+    TableReference(Object key, CustomWordBoundaryCharClassTable table, ReferenceQueue<CustomWordBoundaryCharClassTable> queue) {
+      super(table, queue);
+      this.key = key;
+    }
+  }
+
+  /** the mappings of a file, the handle of its file watcher and the indices using them */
+  private static final class WatchedMappings {
+    final CustomWordBoundaryMappingsWatcher watcher;
+    final WatcherHandle<FileWatcher> handle;
+    final Set<Index> indices = new HashSet<>();
+
+    WatchedMappings(CustomWordBoundaryMappingsWatcher watcher, WatcherHandle<FileWatcher> handle) {
+      this.watcher = watcher;
+      this.handle = handle;
+    }
+  }
+}
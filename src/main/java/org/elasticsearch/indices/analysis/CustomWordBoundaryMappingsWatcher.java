@@ -0,0 +1,140 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.indices.analysis;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.analysis.standard.CustomWordBoundaryCharClassTable;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.analysis.Analysis;
+import org.elasticsearch.index.analysis.CustomWordBoundaryStandardTokenizerFactory;
+import org.elasticsearch.watcher.FileChangesListener;
+
+/**
+ * Mappings loaded from a file, and reloaded when the file changes.
+ * <p>
+ * The file is parsed and compiled once per node, whatever the number of
+ * tokenizers using it, and the compiled table is published through a
+ * volatile reference that tokenizers read when they start a new input. A
+ * file that fails to parse is logged and the previous table is kept.
+ */
+public class CustomWordBoundaryMappingsWatcher extends FileChangesListener {
+
+  private final ESLogger logger;
+  private final Path path;
+  private final CustomWordBoundaryIndicesAnalysis indicesAnalysis;
+  private final AtomicReference<CustomWordBoundaryCharClassTable> table = new AtomicReference<>();
+
+  private volatile long reloads;
+  private volatile long failedReloads;
+  private volatile long lastReloadNanos;
+  private volatile long totalReloadNanos;
+
+  CustomWordBoundaryMappingsWatcher(Path path, CustomWordBoundaryIndicesAnalysis indicesAnalysis, ESLogger logger) throws IOException {
+    this.path = path;
+    this.indicesAnalysis = indicesAnalysis;
+    this.logger = logger;
+    table.set(load());
+  }
+
+  /**
+   * Returns the reference to the table compiled from the current content of
+   * the file.
+   */
+  public AtomicReference<CustomWordBoundaryCharClassTable> table() {
+    return table;
+  }
+
+  /** Returns the file the mappings are loaded from */
+  public Path path() {
+    return path;
+  }
+
+  @Override
+  public void onFileCreated(Path file) {
+    reload();
+  }
+
+  @Override
+  public void onFileChanged(Path file) {
+    reload();
+  }
+
+  @Override
+  public void onFileDeleted(Path file) {
+    logger.warn("mappings file [{}] was deleted, keeping the current mappings", path);
+  }
+
+  /**
+   * Loads the file again and publishes its table, unless it fails to load.
+   */
+  public synchronized void reload() {
+    long start = System.nanoTime();
+    CustomWordBoundaryCharClassTable reloaded;
+    try {
+      reloaded = load();
+    } catch (IOException | RuntimeException e) {
+      failedReloads++;
+      logger.warn("failed to reload mappings [{}], keeping the current mappings", e, path);
+      return;
+    }
+    table.set(reloaded);
+    lastReloadNanos = System.nanoTime() - start;
+    totalReloadNanos += lastReloadNanos;
+    reloads++;
+    logger.info("reloaded mappings [{}] ({}) in [{}]", path, reloaded.fingerprint(), TimeValue.timeValueNanos(lastReloadNanos));
+  }
+
+  private CustomWordBoundaryCharClassTable load() throws IOException {
+    List<String> rules;
+    try (Reader reader = FileSystemUtils.newBufferedReader(path.toUri().toURL(), StandardCharsets.UTF_8)) {
+      rules = Analysis.loadWordList(reader, "#");
+    }
+    return indicesAnalysis.charClassTable(CustomWordBoundaryStandardTokenizerFactory.parseRules(rules));
+  }
+
+  /** Returns the number of times the mappings were reloaded */
+  public long reloadCount() {
+    return reloads;
+  }
+
+  /** Returns the number of times the file changed but could not be loaded */
+  public long failedReloadCount() {
+    return failedReloads;
+  }
+
+  /** Returns the time the last reload took */
+  public TimeValue lastReloadTime() {
+    return TimeValue.timeValueNanos(lastReloadNanos);
+  }
+
+  /** Returns the time all the reloads took */
+  public TimeValue totalReloadTime() {
+    return TimeValue.timeValueNanos(totalReloadNanos);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.indices.analysis;
+
+import java.util.Locale;
+
+import org.apache.lucene.analysis.standard.CustomWordBoundaryCharClassTable;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryStandardTokenizerImpl;
+
+/**
+ * Node level custom word boundary standard tokenizers with predefined
+ * mappings. Their tables are compiled once when the plugin is loaded, and
+ * indices using them do not hold any mapping state of their own.
+ */
+public enum PreBuiltCustomWordBoundaryTokenizers {
+
+  /**
+   * Keeps hashtags, mentions and <code>google+</code> style terms intact:
+   * <code>#</code>, <code>@</code> and <code>+</code> are letters.
+   */
+  SOCIAL {
+    @Override
+    protected void mappings(CustomWordBoundaryCharClassTable.Builder mappings) {
+      mappings.map('#', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+      mappings.map('@', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+      mappings.map('+', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+    }
+  },
+
+  /**
+   * Keeps programming terms such as <code>C#</code>, <code>C++</code>,
+   * <code>node.js</code> or <code>snake_case</code> intact. <code>#</code> and
+   * <code>+</code> extend words, like <code>_</code> does by default, while
+   * <code>.</code> keeps joining letters without ending up in the terms at the
+   * end of a sentence.
+   */
+  CODE {
+    @Override
+    protected void mappings(CustomWordBoundaryCharClassTable.Builder mappings) {
+      mappings.map('#', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+      mappings.map('+', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER);
+    }
+  };
+
+  /**
+   * Adds the mappings of this preset.
+   */
+  protected abstract void mappings(CustomWordBoundaryCharClassTable.Builder mappings);
+
+  /**
+   * Returns the mappings of this preset.
+   */
+  public CustomWordBoundaryCharClassTable.Builder mappings() {
+    CustomWordBoundaryCharClassTable.Builder mappings = new CustomWordBoundaryCharClassTable.Builder();
+    mappings(mappings);
+    return mappings;
+  }
+
+  /**
+   * Returns the name this tokenizer is registered under.
+   */
+  public String tokenizerName() {
+    return "standard_customwb_" + name().toLowerCase(Locale.ROOT);
+  }
+}
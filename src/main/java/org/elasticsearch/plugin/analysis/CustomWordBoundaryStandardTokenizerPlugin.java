@@ -19,8 +19,16 @@
 
 package org.elasticsearch.plugin.analysis;
 
+import java.util.Collection;
+import java.util.Collections;
+
+import org.elasticsearch.common.component.LifecycleComponent;
+import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.index.analysis.AnalysisModule;
+import org.elasticsearch.index.analysis.CustomWordBoundaryAnalyzerProvider;
 import org.elasticsearch.index.analysis.CustomWordBoundaryStandardTokenizerFactory;
+import org.elasticsearch.indices.analysis.CustomWordBoundaryIndicesAnalysis;
+import org.elasticsearch.indices.analysis.CustomWordBoundaryIndicesAnalysisModule;
 import org.elasticsearch.plugins.Plugin;
 
 public class CustomWordBoundaryStandardTokenizerPlugin extends Plugin {
@@ -35,7 +43,19 @@ public class CustomWordBoundaryStandardTokenizerPlugin extends Plugin {
     return "An extension to Lucene's standard tokenizer that supports custom character mappings to override word boundary property values - ES 2.x";
   }
 
+  @Override
+  public Collection<Module> nodeModules() {
+    return Collections.<Module>singletonList(new CustomWordBoundaryIndicesAnalysisModule());
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public Collection<Class<? extends LifecycleComponent>> nodeServices() {
+    return Collections.<Class<? extends LifecycleComponent>>singletonList(CustomWordBoundaryIndicesAnalysis.class);
+  }
+
   public void onModule(AnalysisModule module) {
     module.addTokenizer("standard_customwb", CustomWordBoundaryStandardTokenizerFactory.class);
+    module.addAnalyzer("standard_customwb", CustomWordBoundaryAnalyzerProvider.class);
   }
 }
@@ -0,0 +1,530 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.lucene.analysis.standard;
+
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Checks the scanner and its tables against Lucene's {@link StandardTokenizer},
+ * which is generated from the same grammar without any of the changes made to
+ * the scanner loop, its transition table or its character class table.
+ */
+public class CustomWordBoundaryStandardTokenizerTests extends ESTestCase {
+
+    /** pieces of text the random texts are made of: all scripts and classes, marks, joiners, surrogates */
+    private static final String[] PIECES = {
+        "a", "Zx", "1", "42", " ", "  ", ".", "'", "\"", ",", ":", "_", "-", "\n", "́", "‍", " ",
+        "é", "ß", "ÿ", "Ā", "日本", "한", "ภา", "カ", "ひ",
+        "😀", "𠀀", "@", "#", "+", "!", "/", "$", "x1.2", "don't", "3,5", "a_b"
+    };
+
+    /** chars whose class is overridden */
+    private static final String OVERRIDDEN = "@#+-.:'_,é!/$́";
+
+    /** the word boundary classes that can be mapped, and a char that has each of them by default */
+    private static final char[] CLASSES = {
+        CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_BREAK, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER,
+        CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_NUMERIC, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_MID_LETTER,
+        CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_MID_NUMBER, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_MID_NUMBER_LETTER,
+        CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_EXTENDED_NUM_LETTER, CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_SINGLE_QUOTE,
+        CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_DOUBLE_QUOTE
+    };
+    private static final String CLASS_CHARS = "!a1:,._'\"";
+
+    @Test
+    public void testSameTokensAsStandardTokenizer() throws IOException {
+        Random random = random();
+        for (int iteration = 0; iteration < 200; iteration++) {
+            // the reference sees each overridden char replaced by a char of its new class
+            CustomWordBoundaryCharClassTable.Builder mappings = new CustomWordBoundaryCharClassTable.Builder();
+            char[] replacements = new char[0x10000];
+            for (int i = random.nextInt(6); i > 0; i--) {
+                char c = OVERRIDDEN.charAt(random.nextInt(OVERRIDDEN.length()));
+                int wbClass = random.nextInt(CLASSES.length);
+                mappings.map(c, CLASSES[wbClass]);
+                replacements[c] = CLASS_CHARS.charAt(wbClass);
+            }
+            CustomWordBoundaryCharClassTable table = mappings.build();
+
+            String text = randomText(random);
+            char[] replaced = text.toCharArray();
+            for (int i = 0; i < replaced.length; i++) {
+                if (replacements[replaced[i]] != 0) {
+                    replaced[i] = replacements[replaced[i]];
+                }
+            }
+            // with a length of 1 the reference drops the rest of the text at a surrogate pair
+            int maxTokenLength = random.nextBoolean() ? StandardAnalyzer.DEFAULT_MAX_TOKEN_LENGTH : 2 + random.nextInt(20);
+
+            StandardTokenizer reference = new StandardTokenizer();
+            reference.setMaxTokenLength(maxTokenLength);
+            reference.setReader(new StringReader(new String(replaced)));
+            List<String> expected = tokens(reference, text, false);
+
+            CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(table);
+            tokenizer.setMaxTokenLength(maxTokenLength);
+            tokenizer.setSpecializedEngine(random.nextBoolean());
+            switch (random.nextInt(3)) {
+                case 0:
+                    tokenizer.setReader(new StringReader(text));
+                    break;
+                case 1:
+                    // short reads, so that runs and tokens cross the buffer boundaries
+                    tokenizer.setReader(new ChunkedReader(text, random));
+                    break;
+                default:
+                    tokenizer.setReader(new CustomWordBoundaryTextReader(text));
+                    break;
+            }
+            assertThat("mappings " + table.fingerprint() + ", text [" + text + "]", tokens(tokenizer, text, true), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void testScannerCreatedOnReset() throws IOException {
+        // settings made before the scanner exists apply to it
+        CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT);
+        assertThat(tokenizer.getRefillCount(), equalTo(0L));
+        tokenizer.setMaxTokenLength(3);
+        tokenizer.setSpecializedEngine(true);
+        String text = "abcdef gh";
+        tokenizer.setReader(new StringReader(text));
+        assertThat(tokens(tokenizer, text, true), equalTo(Arrays.asList(
+                "abc 0-3 <ALPHANUM> +1", "def 3-6 <ALPHANUM> +1", "gh 7-9 <ALPHANUM> +1", "end 9 +0")));
+
+        // a tokenizer borrowing its scanners does not create one of its own
+        CustomWordBoundaryScannerPool pool = new CustomWordBoundaryScannerPool(1);
+        tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT);
+        tokenizer.setScannerPool(pool);
+        tokenizer.setReader(new StringReader(text));
+        assertThat(pool.createdCount(), equalTo(0L));
+        assertThat(tokens(tokenizer, text, true).size(), equalTo(3));
+        assertThat(pool.createdCount(), equalTo(1L));
+        assertThat(pool.idleCount(), equalTo(1));
+
+        // closing a tokenizer that was never reset
+        tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT);
+        tokenizer.setScannerPool(pool);
+        tokenizer.close();
+        assertThat(pool.idleCount(), equalTo(1));
+    }
+
+    @Test
+    public void testScannerPoolIgnoresFingerprintCollisions() throws IOException {
+        // two tables with different classes for '@' that claim the same fingerprint
+        CustomWordBoundaryCharClassTable mapped = new CustomWordBoundaryCharClassTable.Builder()
+                .map('@', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER).build();
+        CustomWordBoundaryCharClassTable first = new CustomWordBoundaryCharClassTable(CustomWordBoundaryCharClassTable.DEFAULT.blocks(),
+                CustomWordBoundaryCharClassTable.DEFAULT.pages(), null, "forged");
+        CustomWordBoundaryCharClassTable second = new CustomWordBoundaryCharClassTable(mapped.blocks(), mapped.pages(), null, "forged");
+
+        CustomWordBoundaryScannerPool pool = new CustomWordBoundaryScannerPool(2);
+        String text = "a@b";
+        CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(first);
+        tokenizer.setScannerPool(pool);
+        tokenizer.setReader(new StringReader(text));
+        assertThat(tokens(tokenizer, text, true), equalTo(Arrays.asList("a 0-1 <ALPHANUM> +1", "b 2-3 <ALPHANUM> +1", "end 3 +0")));
+
+        // the idle scanner of the first table is not handed out for the second one
+        tokenizer = new CustomWordBoundaryStandardTokenizer(second);
+        tokenizer.setScannerPool(pool);
+        tokenizer.setReader(new StringReader(text));
+        assertThat(tokens(tokenizer, text, true), equalTo(Arrays.asList("a@b 0-3 <ALPHANUM> +1", "end 3 +0")));
+        assertThat(pool.createdCount(), equalTo(2L));
+        assertThat(pool.reusedCount(), equalTo(0L));
+        assertThat(pool.borrow(first).getCharClassTable(), sameInstance(first));
+        assertThat(pool.borrow(second).getCharClassTable(), sameInstance(second));
+    }
+
+    @Test
+    public void testTokenCacheIgnoresFingerprintCollisions() throws IOException {
+        // two tables with different classes for '@' that claim the same fingerprint
+        CustomWordBoundaryCharClassTable mapped = new CustomWordBoundaryCharClassTable.Builder()
+                .map('@', CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER).build();
+        CustomWordBoundaryCharClassTable first = new CustomWordBoundaryCharClassTable(CustomWordBoundaryCharClassTable.DEFAULT.blocks(),
+                CustomWordBoundaryCharClassTable.DEFAULT.pages(), null, "forged");
+        CustomWordBoundaryCharClassTable second = new CustomWordBoundaryCharClassTable(mapped.blocks(), mapped.pages(), null, "forged");
+
+        CustomWordBoundaryTokenCache cache = new CustomWordBoundaryTokenCache(10, 1 << 20);
+        String text = "a@b";
+        CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(first);
+        tokenizer.setCache(cache, "settings");
+        tokenizer.setReader(new StringReader(text));
+        assertThat(tokens(tokenizer, text, true), equalTo(Arrays.asList("a 0-1 <ALPHANUM> +1", "b 2-3 <ALPHANUM> +1", "end 3 +0")));
+
+        // the tokens cached for the first table are not replayed for the second one
+        tokenizer = new CustomWordBoundaryStandardTokenizer(second);
+        tokenizer.setCache(cache, "settings");
+        tokenizer.setReader(new StringReader(text));
+        assertThat(tokens(tokenizer, text, true), equalTo(Arrays.asList("a@b 0-3 <ALPHANUM> +1", "end 3 +0")));
+        assertThat(cache.hitCount(), equalTo(0L));
+        assertThat(cache.size(), equalTo(2));
+
+        // while the same table instance does
+        tokenizer = new CustomWordBoundaryStandardTokenizer(first);
+        tokenizer.setCache(cache, "settings");
+        tokenizer.setReader(new StringReader(text));
+        assertThat(tokens(tokenizer, text, true), equalTo(Arrays.asList("a 0-1 <ALPHANUM> +1", "b 2-3 <ALPHANUM> +1", "end 3 +0")));
+        assertThat(cache.hitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void testStringReadersScannedInPlace() throws IOException {
+        final CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT);
+        tokenizer.setMaxTokenLength(5000);
+        Analyzer analyzer = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                return new TokenStreamComponents(tokenizer);
+            }
+        };
+        // Lucene's reader of string values is scanned without any refill, however long the token
+        String text = repeat("a", 3000) + " b";
+        List<String> expected = Arrays.asList(repeat("a", 3000) + " 0-3000 <ALPHANUM> +1", "b 3001-3002 <ALPHANUM> +1", "end 3002 +0");
+        assertThat(tokens((Tokenizer) analyzer.tokenStream("field", text), text, true), equalTo(expected));
+        assertThat(tokenizer.getRefillCount(), equalTo(0L));
+        assertThat(tokenizer.getGrowCount(), equalTo(0L));
+
+        // the unread text of a string reader, whether its fields are accessible on this JVM or not
+        StringReader reader = new StringReader("skipped " + text);
+        assertThat(reader.skip(8), equalTo(8L));
+        tokenizer.setReader(reader);
+        assertThat(tokens(tokenizer, text, true), equalTo(expected));
+        assertThat(tokenizer.getCompactionCount(), equalTo(0L));
+        analyzer.close();
+    }
+
+    @Test
+    public void testTokensLongerThanTheBuffer() throws IOException {
+        // the buffer starts at 1024 chars, and grows to hold a whole token; readers that are not
+        // string-backed are read through it
+        String text = repeat("a", 3000) + " b";
+        CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT);
+        tokenizer.setMaxTokenLength(5000);
+        tokenizer.setReader(new BufferedReader(new StringReader(text)));
+        assertThat(tokens(tokenizer, text, true), equalTo(Arrays.asList(
+                repeat("a", 3000) + " 0-3000 <ALPHANUM> +1", "b 3001-3002 <ALPHANUM> +1", "end 3002 +0")));
+        assertThat(tokenizer.getGrowCount(), equalTo(2L));
+        assertThat(tokenizer.getCompactionCount(), equalTo(0L));
+
+        // a token longer than the limit is split, each part being scanned in the initial buffer
+        tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT);
+        tokenizer.setReader(new BufferedReader(new StringReader(text)));
+        StandardTokenizer reference = new StandardTokenizer();
+        reference.setReader(new StringReader(text));
+        assertThat(tokens(tokenizer, text, true), equalTo(tokens(reference, text, false)));
+        assertThat(tokenizer.getGrowCount(), equalTo(0L));
+        assertThat(tokenizer.getCompactionCount(), greaterThan(0L));
+        // a single read per buffer full, rather than one per token
+        assertThat(tokenizer.getRefillCount(), lessThan(10L));
+    }
+
+    @Test
+    public void testBufferShrinksAfterSmallDocuments() throws IOException {
+        CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT);
+        tokenizer.setMaxTokenLength(5000);
+        String text = repeat("a", 3000);
+        tokenizer.setReader(new BufferedReader(new StringReader(text)));
+        tokens(tokenizer, text, true);
+        assertThat(tokenizer.getGrowCount(), equalTo(2L));
+
+        // the grown buffer is halved once 32 documents in a row have used at most a quarter of it,
+        // whether the last one is closed or followed by another one, and is never shrunk below its
+        // initial size
+        text = "a few small tokens";
+        for (int document = 1; document <= 100; document++) {
+            tokenizer.setReader(new BufferedReader(new StringReader(text)));
+            tokens(tokenizer, text, true);
+            assertThat("document " + document, tokenizer.getShrinkCount(), equalTo(document < 32 ? 0L : document < 64 ? 1L : 2L));
+        }
+
+        // a long token still fits, after growing again
+        text = repeat("a", 3000);
+        tokenizer.setReader(new BufferedReader(new StringReader(text)));
+        assertThat(tokens(tokenizer, text, true).get(0), equalTo(text + " 0-3000 <ALPHANUM> +1"));
+        assertThat(tokenizer.getGrowCount(), equalTo(4L));
+    }
+
+    @Test
+    public void testSurrogatePairsAtBufferBoundaries() throws IOException {
+        Random random = random();
+        // ideographs, letters outside of the BMP, and emoji, whose pairs end the buffer or a token window
+        String[] pairs = {"\uD840\uDC00", "\uD835\uDC00", "\uD83D\uDE00"};
+        for (String pair : pairs) {
+            for (int prefix = 1016; prefix < 1032; prefix++) {
+                for (int maxTokenLength : new int[] {2, 3, 7, 255, 1023, 1024, 1025, 5000}) {
+                    String text = repeat("a", prefix % 11) + " " + repeat("b", prefix - prefix % 11 - 1) + pair + pair + "c " + pair + "d";
+                    StandardTokenizer reference = new StandardTokenizer();
+                    reference.setMaxTokenLength(maxTokenLength);
+                    reference.setReader(new StringReader(text));
+                    CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT);
+                    tokenizer.setMaxTokenLength(maxTokenLength);
+                    tokenizer.setSpecializedEngine(random.nextBoolean());
+                    tokenizer.setReader(random.nextBoolean() ? new StringReader(text) : new ChunkedReader(text, random));
+                    assertThat("prefix " + prefix + ", max " + maxTokenLength, tokens(tokenizer, text, true),
+                            equalTo(tokens(reference, text, false)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSurrogatePairsWithMaxTokenLengthOne() throws IOException {
+        // the original scanner, with a buffer of a single char, stopped at the first surrogate pair
+        String text = "a\uD83D\uDE00b c";
+        StandardTokenizer reference = new StandardTokenizer();
+        reference.setMaxTokenLength(1);
+        reference.setReader(new StringReader(text));
+        assertThat(tokens(reference, text, false), equalTo(Arrays.asList("a 0-1 <ALPHANUM> +1", "end 1 +0")));
+
+        CustomWordBoundaryStandardTokenizer tokenizer = new CustomWordBoundaryStandardTokenizer(CustomWordBoundaryCharClassTable.DEFAULT);
+        tokenizer.setMaxTokenLength(1);
+        tokenizer.setReader(new StringReader(text));
+        assertThat(tokens(tokenizer, text, true), equalTo(Arrays.asList(
+                "a 0-1 <ALPHANUM> +1", "b 3-4 <ALPHANUM> +1", "c 5-6 <ALPHANUM> +1", "end 6 +0")));
+
+        text = "ab \uD840\uDC00";
+        tokenizer.setReader(new StringReader(text));
+        assertThat(tokens(tokenizer, text, true), equalTo(Arrays.asList("a 0-1 <ALPHANUM> +1", "b 1-2 <ALPHANUM> +1", "end 5 +0")));
+    }
+
+    @Test
+    public void testClassOfMatchesFlatTable() {
+        // the default classes, unpacked without pages
+        int[] defaults = new int[Character.MAX_CODE_POINT + 1];
+        String packed = CustomWordBoundaryStandardTokenizerImpl.ZZ_CMAP_PACKED;
+        for (int i = 0, j = 0; i < packed.length(); i += 2) {
+            Arrays.fill(defaults, j, j += packed.charAt(i), packed.charAt(i + 1));
+        }
+        assertClassOf(defaults, CustomWordBoundaryCharClassTable.DEFAULT);
+
+        // code points on page and plane boundaries, and in the Latin-1 page
+        int[] edges = {0, 'a', 0xAD, 0xFF, 0x100, 0x1FF, 0xD7FF, 0xD800, 0xDFFF, 0xFFFF, 0x10000, 0x1F600, 0x10FFFF};
+        String[] categories = {"Sc", "Nd", "Zs", "P"};
+        int[] types = {Character.CURRENCY_SYMBOL, Character.DECIMAL_DIGIT_NUMBER, Character.SPACE_SEPARATOR, -1};
+        Random random = random();
+        for (int iteration = 0; iteration < 20; iteration++) {
+            int[] expected = defaults.clone();
+            CustomWordBoundaryCharClassTable.Builder mappings = new CustomWordBoundaryCharClassTable.Builder();
+            for (int i = random.nextInt(40); i > 0; i--) {
+                char wbClass = CLASSES[random.nextInt(CLASSES.length)];
+                int first = random.nextBoolean() ? edges[random.nextInt(edges.length)] : random.nextInt(Character.MAX_CODE_POINT + 1);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        int last = Math.min(Character.MAX_CODE_POINT, first + random.nextInt(random.nextBoolean() ? 10 : 2000));
+                        mappings.mapRange(first, last, wbClass);
+                        Arrays.fill(expected, first, last + 1, wbClass);
+                        break;
+                    case 1:
+                        int category = random.nextInt(categories.length);
+                        mappings.mapCategory(categories[category], wbClass);
+                        for (int c = 0; c < expected.length; c++) {
+                            int type = Character.getType(c);
+                            if (types[category] < 0 ? isPunctuation(type) : type == types[category]) {
+                                expected[c] = wbClass;
+                            }
+                        }
+                        break;
+                    default:
+                        mappings.map(first, wbClass);
+                        expected[first] = wbClass;
+                        break;
+                }
+            }
+            assertClassOf(expected, mappings.build());
+        }
+    }
+
+    private static boolean isPunctuation(int type) {
+        return type == Character.CONNECTOR_PUNCTUATION || type == Character.DASH_PUNCTUATION || type == Character.START_PUNCTUATION
+                || type == Character.END_PUNCTUATION || type == Character.INITIAL_QUOTE_PUNCTUATION
+                || type == Character.FINAL_QUOTE_PUNCTUATION || type == Character.OTHER_PUNCTUATION;
+    }
+
+    /** checks the paged lookup, and the Latin-1 fast path, of every code point */
+    private static void assertClassOf(int[] expected, CustomWordBoundaryCharClassTable table) {
+        for (int c = 0; c <= Character.MAX_CODE_POINT; c++) {
+            if (table.classOf(c) != expected[c]) {
+                fail("class of U+" + Integer.toHexString(c) + ": expected " + expected[c] + " but was " + table.classOf(c));
+            }
+        }
+        byte[] latin1 = table.latin1();
+        assertThat(latin1.length, equalTo(CustomWordBoundaryCharClassTable.PAGE_SIZE));
+        for (int c = 0; c < latin1.length; c++) {
+            assertThat(latin1[c] & 0xFF, equalTo(table.classOf(c)));
+        }
+    }
+
+    @Test
+    public void testTablesMatchPackedTables() {
+        assertArrayEquals(CustomWordBoundaryStandardTokenizerImpl.zzUnpackAction(), CustomWordBoundaryStandardTokenizerTables.ACTION);
+        assertArrayEquals(CustomWordBoundaryStandardTokenizerImpl.zzUnpackRowMap(), CustomWordBoundaryStandardTokenizerTables.ROWMAP);
+        assertArrayEquals(CustomWordBoundaryStandardTokenizerImpl.zzUnpackTrans(), CustomWordBoundaryStandardTokenizerTables.TRANS);
+        assertArrayEquals(CustomWordBoundaryStandardTokenizerImpl.zzUnpackAttribute(), CustomWordBoundaryStandardTokenizerTables.ATTRIBUTE);
+        CustomWordBoundaryCharClassTable cmap = CustomWordBoundaryCharClassTable.unpack(CustomWordBoundaryStandardTokenizerImpl.ZZ_CMAP_PACKED);
+        assertArrayEquals(cmap.blocks(), CustomWordBoundaryStandardTokenizerTables.CMAP_BLOCKS);
+        assertArrayEquals(cmap.pages(), CustomWordBoundaryStandardTokenizerTables.CMAP_PAGES);
+    }
+
+    @Test
+    public void testCorruptedTables() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = CustomWordBoundaryStandardTokenizerTables.class.getResourceAsStream(CustomWordBoundaryStandardTokenizerTables.RESOURCE)) {
+            byte[] chunk = new byte[8192];
+            for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+                out.write(chunk, 0, n);
+            }
+        }
+        byte[] tables = out.toByteArray();
+        int length = tables.length - 3 * 4 - 4;
+        assertThat(CustomWordBoundaryStandardTokenizerTables.read(new ByteArrayInputStream(tables)).remaining(), equalTo(length));
+
+        byte[] corrupted = tables.clone();
+        corrupted[3 * 4 + length / 2] ^= 1;
+        assertInvalidTables(corrupted, "checksum mismatch");
+
+        corrupted = Arrays.copyOf(tables, tables.length + 1);
+        assertInvalidTables(corrupted, "unexpected bytes");
+
+        try {
+            CustomWordBoundaryStandardTokenizerTables.read(new ByteArrayInputStream(Arrays.copyOf(tables, tables.length - 1)));
+            fail("truncated tables loaded");
+        } catch (EOFException e) {
+            // expected
+        }
+
+        // a table length that does not match the payload, with a valid checksum
+        corrupted = tables.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(corrupted);
+        buffer.putInt(3 * 4, buffer.getInt(3 * 4) + 1);
+        CRC32 crc = new CRC32();
+        crc.update(corrupted, 3 * 4, length);
+        buffer.putInt(3 * 4 + length, (int) crc.getValue());
+        assertInvalidTables(corrupted, "the tables take");
+    }
+
+    private static void assertInvalidTables(byte[] tables, String message) {
+        try {
+            CustomWordBoundaryStandardTokenizerTables.read(new ByteArrayInputStream(tables));
+            fail("invalid tables loaded");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString(message));
+        }
+    }
+
+    static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    /** returns a random text, with long runs of the same piece to exercise the skipping of self loops */
+    static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(random.nextBoolean() ? 100 : 3000);
+        while (text.length() < length) {
+            String piece = PIECES[random.nextInt(PIECES.length)];
+            int repeat = random.nextInt(10) == 0 ? random.nextInt(300) : 1 + random.nextInt(3);
+            for (int i = 0; i < repeat; i++) {
+                text.append(piece);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * returns each token, with its text taken from the original text, then the final state;
+     * the terms are checked against the original text unless they were read from a replaced one
+     */
+    static List<String> tokens(Tokenizer tokenizer, String text, boolean checkTerms) throws IOException {
+        CharTermAttribute term = tokenizer.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offset = tokenizer.addAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute position = tokenizer.addAttribute(PositionIncrementAttribute.class);
+        TypeAttribute type = tokenizer.addAttribute(TypeAttribute.class);
+        List<String> tokens = new ArrayList<>();
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+            String original = text.substring(offset.startOffset(), offset.endOffset());
+            if (checkTerms) {
+                assertThat(term.toString(), equalTo(original));
+            }
+            tokens.add(original + " " + offset.startOffset() + "-" + offset.endOffset() + " " + type.type() + " +" + position.getPositionIncrement());
+        }
+        tokenizer.end();
+        tokens.add("end " + offset.endOffset() + " +" + position.getPositionIncrement());
+        tokenizer.close();
+        return tokens;
+    }
+
+    /** returns the text a few chars at a time */
+    static final class ChunkedReader extends Reader {
+        private final String text;
+        private final Random random;
+        private int pos;
+
+        ChunkedReader(String text, Random random) {
+            this.text = text;
+            this.random = random;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (pos == text.length()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, text.length() - pos), 1 + random.nextInt(7));
+            text.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
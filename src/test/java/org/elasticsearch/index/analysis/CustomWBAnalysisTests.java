@@ -25,7 +25,9 @@ import org.junit.Test;
 
 import org.elasticsearch.Version;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.inject.AbstractModule;
 import org.elasticsearch.common.inject.Injector;
+import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.common.inject.ModulesBuilder;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsModule;
@@ -34,25 +36,55 @@ import org.elasticsearch.env.EnvironmentModule;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.IndexNameModule;
 import org.elasticsearch.index.settings.IndexSettingsModule;
+import org.elasticsearch.indices.analysis.CustomWordBoundaryIndicesAnalysis;
 import org.elasticsearch.indices.analysis.IndicesAnalysisService;
+import org.elasticsearch.indices.analysis.PreBuiltCustomWordBoundaryTokenizers;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
+import org.elasticsearch.indices.IndicesLifecycle;
+import org.elasticsearch.indices.InternalIndicesLifecycle;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 import java.nio.file.Files;
 import java.io.StringReader;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 
 import static org.elasticsearch.common.settings.Settings.Builder.EMPTY_SETTINGS;
 import static org.elasticsearch.common.settings.Settings.settingsBuilder;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 import org.elasticsearch.index.analysis.CustomWordBoundaryStandardTokenizerFactory;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryAnalyzer;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryCharClassTable;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryCharClassTableFile;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryCheckpoint;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryScannerPool;
 import org.apache.lucene.analysis.standard.CustomWordBoundaryStandardTokenizer;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryStandardTokenizerImpl;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryTextReader;
+import org.apache.lucene.analysis.standard.CustomWordBoundaryTokenCache;
 import org.elasticsearch.plugin.analysis.CustomWordBoundaryStandardTokenizerPlugin;
 
 
@@ -73,23 +105,664 @@ public class CustomWBAnalysisTests extends ESTestCase {
         assertSimpleTSOutput(analyzer.analyzer().tokenStream(null, new StringReader(source)), expected);
     }
 
+    @Test
+    public void testIndicesShareCharClassTables() throws IOException {
+        Settings settings = createSettings();
+        Injector nodeInjector = createNodeInjector(settings);
+        CustomWordBoundaryIndicesAnalysis indicesAnalysis = nodeInjector.getInstance(CustomWordBoundaryIndicesAnalysis.class);
+        AnalysisService first = createAnalysisService(nodeInjector, settings, "first");
+        int tableCount = indicesAnalysis.charClassTableCount();
+        AnalysisService second = createAnalysisService(nodeInjector, settings, "second");
+
+        CustomWordBoundaryStandardTokenizerFactory firstFactory = (CustomWordBoundaryStandardTokenizerFactory) first.tokenizer("my_standard_customwb");
+        CustomWordBoundaryStandardTokenizerFactory secondFactory = (CustomWordBoundaryStandardTokenizerFactory) second.tokenizer("my_standard_customwb");
+        assertThat(secondFactory.charClassTable(), sameInstance(firstFactory.charClassTable()));
+        assertThat(indicesAnalysis.charClassTableCount(), equalTo(tableCount));
+    }
+
+    @Test
+    public void testReleasedCharClassTablesAreRebuilt() throws Exception {
+        Settings settings = createSettings();
+        Injector nodeInjector = createNodeInjector(settings);
+        CustomWordBoundaryIndicesAnalysis indicesAnalysis = nodeInjector.getInstance(CustomWordBoundaryIndicesAnalysis.class);
+        int preBuiltCount = indicesAnalysis.charClassTableCount();
+
+        // once no index uses it, the table is collected and its entry expunged
+        WeakReference<CustomWordBoundaryCharClassTable> released = charClassTable(nodeInjector, settings, "first");
+        assertThat(indicesAnalysis.charClassTableCount(), greaterThan(preBuiltCount));
+        for (int i = 0; i < 100 && (released.get() != null || indicesAnalysis.charClassTableCount() > preBuiltCount); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("table still referenced", released.get());
+        assertThat(indicesAnalysis.charClassTableCount(), equalTo(preBuiltCount));
+
+        // the next index with the same mappings compiles it again
+        WeakReference<CustomWordBoundaryCharClassTable> rebuilt = charClassTable(nodeInjector, settings, "second");
+        assertNotNull(rebuilt.get());
+        assertThat(indicesAnalysis.charClassTableCount(), greaterThan(preBuiltCount));
+    }
+
+    /** creates an index, and returns the table of its custom tokenizer once the index is dropped */
+    private WeakReference<CustomWordBoundaryCharClassTable> charClassTable(Injector nodeInjector, Settings settings, String index) {
+        AnalysisService analysisService = createAnalysisService(nodeInjector, settings, index);
+        CustomWordBoundaryCharClassTable table = ((CustomWordBoundaryStandardTokenizerFactory) analysisService.tokenizer("my_standard_customwb")).charClassTable();
+        assertThat(table, not(sameInstance(CustomWordBoundaryCharClassTable.DEFAULT)));
+        analysisService.close();
+        return new WeakReference<>(table);
+    }
+
+    @Test
+    public void testPreBuiltTokenizers() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+
+        NamedAnalyzer social = analysisService.analyzer("social_analyzer");
+        assertSimpleTSOutput(social.analyzer().tokenStream(null, new StringReader("@ericschmidt google+ rocks #social")),
+                new String[]{"@ericschmidt", "google+", "rocks", "#social"});
+
+        NamedAnalyzer code = analysisService.analyzer("code_analyzer");
+        TokenStream stream = code.analyzer().tokenStream(null, new StringReader("C# and C++ beat node.js snake_case"));
+        assertSimpleTSOutput(stream, new String[]{"C#", "and", "C++", "beat", "node.js", "snake_case"});
+        stream.close();
+        stream = code.analyzer().tokenStream(null, new StringReader("foo.bar calls __init__ in v1.2. Use C++."));
+        assertSimpleTSOutput(stream, new String[]{"foo.bar", "calls", "__init__", "in", "v1.2", "Use", "C++"});
+        stream.close();
+        // '.' and '_' keep their default classes
+        CustomWordBoundaryCharClassTable codeTable = PreBuiltCustomWordBoundaryTokenizers.CODE.mappings().build();
+        for (char c : new char[] {'.', '_'}) {
+            assertThat(codeTable.classOf(c), equalTo(CustomWordBoundaryCharClassTable.DEFAULT.classOf(c)));
+        }
+    }
+
+    @Test
+    public void testSupplementaryMappings() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+
+        NamedAnalyzer emoji = analysisService.analyzer("emoji_analyzer");
+        assertSimpleTSOutput(emoji.analyzer().tokenStream(null, new StringReader("so \uD83D\uDE00\uD83D\uDE00 today, works\uD83D\uDC4D")),
+                new String[]{"so", "\uD83D\uDE00\uD83D\uDE00", "today", "works\uD83D\uDC4D"});
+    }
+
+    @Test
+    public void testSequenceMappings() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+
+        NamedAnalyzer sequences = analysisService.analyzer("sequences_analyzer");
+        assertSimpleTSOutput(sequences.analyzer().tokenStream(null, new StringReader("C++, C# and .NET: C#m C+ 1+1 C++x")),
+                new String[]{"C++", "C#", "and", ".NET", "C", "m", "C+", "1+1", "C++x"});
+    }
+
+    @Test
+    public void testRangeMappings() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+
+        NamedAnalyzer ranges = analysisService.analyzer("ranges_analyzer");
+        assertSimpleTSOutput(ranges.analyzer().tokenStream(null, new StringReader("e\u2010mail a\u2011b a\u2012b on-line costs $5 or \u20ac5")),
+                new String[]{"e\u2010mail", "a", "b", "a\u2012b", "on", "line", "costs", "$5", "or", "\u20ac5"});
+
+        // a range is the same override as its code points mapped one by one
+        List<String> perChar = new ArrayList<>();
+        for (char c = '\u2010'; c <= '\u2015'; c++) {
+            perChar.add(c + "=>ML");
+        }
+        CustomWordBoundaryCharClassTable.Builder range = CustomWordBoundaryStandardTokenizerFactory.parseRules(Arrays.asList("[\\u2010-\\u2015]=>ML"));
+        assertThat(range, equalTo(CustomWordBoundaryStandardTokenizerFactory.parseRules(perChar)));
+        assertThat(range.fingerprint(), equalTo(CustomWordBoundaryStandardTokenizerFactory.parseRules(perChar).fingerprint()));
+        assertThat(CustomWordBoundaryStandardTokenizerFactory.parseRules(Arrays.asList("[a-a]=>N")),
+                equalTo(CustomWordBoundaryStandardTokenizerFactory.parseRules(Arrays.asList("a=>N"))));
+
+        // without brackets, x-y is a sequence rather than a range
+        CustomWordBoundaryCharClassTable.Builder sequence = new CustomWordBoundaryCharClassTable.Builder();
+        sequence.sequence("a-z", CustomWordBoundaryStandardTokenizerImpl.WB_CLASS_LETTER);
+        assertThat(CustomWordBoundaryStandardTokenizerFactory.parseRules(Arrays.asList("a-z=>L")), equalTo(sequence));
+
+        for (String invalid : new String[] {"[z-a]=>L", "[ab]=>L", "[a-]=>L", "[a-bc]=>L", "[a_b]=>L"}) {
+            try {
+                CustomWordBoundaryStandardTokenizerFactory.parseRules(Arrays.asList(invalid));
+                fail("accepted " + invalid);
+            } catch (RuntimeException e) {
+                assertThat(e.getMessage(), containsString("Invalid range"));
+            }
+        }
+    }
+
+    @Test
+    public void testInPlaceScanning() throws IOException {
+        String source = "@ericschmidt google+ rocks #social";
+        String[] expected = new String[]{"@ericschmidt", "google+", "rocks", "#social"};
+        CustomWordBoundaryStandardTokenizerFactory factory = (CustomWordBoundaryStandardTokenizerFactory) createAnalysisService().tokenizer("my_standard_customwb");
+
+        Tokenizer tokenizer = factory.create();
+        tokenizer.setReader(new CustomWordBoundaryTextReader(source));
+        assertSimpleTSOutput(tokenizer, expected);
+        tokenizer.close();
+
+        char[] buffer = ("[" + source + "]").toCharArray();
+        tokenizer.setReader(new CustomWordBoundaryTextReader(buffer, 1, source.length()));
+        assertSimpleTSOutput(tokenizer, expected);
+        tokenizer.close();
+    }
+
+    @Test
+    public void testBatchTokens() throws IOException {
+        String source = "@ericschmidt google+ rocks #social 42";
+        CustomWordBoundaryStandardTokenizerFactory factory = (CustomWordBoundaryStandardTokenizerFactory) createAnalysisService().tokenizer("my_standard_customwb");
+        CustomWordBoundaryStandardTokenizer tokenizer = (CustomWordBoundaryStandardTokenizer) factory.create();
+        tokenizer.setReader(new StringReader(source));
+        tokenizer.reset();
+
+        int[] starts = new int[3];
+        int[] lengths = new int[3];
+        byte[] types = new byte[3];
+        assertThat(tokenizer.incrementTokens(starts, lengths, types), equalTo(3));
+        assertThat(source.substring(starts[0], starts[0] + lengths[0]), equalTo("@ericschmidt"));
+        assertThat(source.substring(starts[2], starts[2] + lengths[2]), equalTo("rocks"));
+        assertThat(tokenizer.incrementTokens(starts, lengths, types), equalTo(2));
+        assertThat(source.substring(starts[0], starts[0] + lengths[0]), equalTo("#social"));
+        assertThat(CustomWordBoundaryStandardTokenizer.TOKEN_TYPES[types[1]], equalTo("<NUM>"));
+        assertThat(tokenizer.incrementTokens(starts, lengths, types), equalTo(0));
+        tokenizer.end();
+        tokenizer.close();
+    }
+
+    @Test
+    public void testFusedAnalyzer() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+        NamedAnalyzer chain = analysisService.analyzer("chain_analyzer");
+        NamedAnalyzer fused = analysisService.analyzer("fused_analyzer");
+        assertThat(fused.analyzer(), instanceOf(CustomWordBoundaryAnalyzer.class));
+
+        String[] sources = {
+            "@EricSchmidt: Google+ is the BEST #social network of the year",
+            "Crème BRÛLÉE and the Ǆ digraph, ÆSIR ﬁnancial straße İstanbul",
+            "the the a an"
+        };
+        for (String source : sources) {
+            TokenStream expected = chain.tokenStream("field", source);
+            TokenStream actual = fused.tokenStream("field", source);
+            assertSameTokens(expected, actual);
+        }
+    }
+
+    @Test
+    public void testTokenTypes() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+        NamedAnalyzer filtered = analysisService.analyzer("keep_types_analyzer");
+        NamedAnalyzer scanned = analysisService.analyzer("alphanum_analyzer");
+
+        String[] sources = {
+            "42 @ericschmidt 2016 google+ 3.14 rocks 日本語 #social 7",
+            "1 2 3 ภาษาไทย 한국어",
+            "C++ 10x faster"
+        };
+        for (String source : sources) {
+            TokenStream expected = filtered.tokenStream("field", source);
+            TokenStream actual = scanned.tokenStream("field", source);
+            assertSameTokens(expected, actual);
+        }
+    }
+
+    @Test
+    public void testDiscardLongTokens() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+        NamedAnalyzer discard = analysisService.analyzer("discard_analyzer");
+
+        StringBuilder blob = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            blob.append((char) ('a' + i % 26));
+        }
+        String source = "@ericschmidt google+ " + blob + " rocks #social";
+        TokenStream stream = discard.tokenStream("field", source);
+        CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+        PositionIncrementAttribute posInc = stream.addAttribute(PositionIncrementAttribute.class);
+        OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+        stream.reset();
+        assertTrue(stream.incrementToken());
+        assertThat(term.toString(), equalTo("google"));
+        assertThat(posInc.getPositionIncrement(), equalTo(2));
+        assertTrue(stream.incrementToken());
+        assertThat(term.toString(), equalTo("rocks"));
+        assertThat(posInc.getPositionIncrement(), equalTo(2));
+        assertThat(offset.startOffset(), equalTo(source.indexOf(" rocks") + 1));
+        assertTrue(stream.incrementToken());
+        assertThat(term.toString(), equalTo("social"));
+        assertFalse(stream.incrementToken());
+        stream.end();
+        assertThat(offset.endOffset(), equalTo(source.length()));
+        stream.close();
+
+        CustomWordBoundaryStandardTokenizer tokenizer = (CustomWordBoundaryStandardTokenizer) analysisService.tokenizer("discard_standard_customwb").create();
+        // read through the scan buffer, which a long token does not grow beyond the limit
+        tokenizer.setReader(new BufferedReader(new StringReader(source)));
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+        }
+        tokenizer.end();
+        tokenizer.close();
+        assertThat(tokenizer.getGrowCount(), equalTo(1L));
+    }
+
+    @Test
+    public void testSpecializedEngine() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+        NamedAnalyzer table = analysisService.analyzer("table_analyzer");
+        NamedAnalyzer specialized = analysisService.analyzer("specialized_analyzer");
+
+        String[] sources = {
+            "@ericschmidt google+ rocks #social, C++ and C++x; don't stop 3.14 1,000.5 foo_bar a--b",
+            "Crème brûlée ÆSIR naïve ß l'été \u00A0\u00AD 日本語 한국어 ภาษาไทย \uD83D\uDE00 x\u0301y",
+            "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa 42"
+        };
+        for (String source : sources) {
+            assertSameTokens(table.tokenStream("field", source), specialized.tokenStream("field", source));
+        }
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        Settings settings = createSettings();
+        Injector nodeInjector = createNodeInjector(settings);
+        AnalysisService analysisService = createAnalysisService(nodeInjector, settings, "test");
+        TokenizerFactory factory = analysisService.tokenizer("sequences_standard_customwb");
+
+        StringBuilder source = new StringBuilder();
+        String[] sentences = {
+            "C++, C# and .NET: C#m C+ 1+1 C++x ",
+            "@ericschmidt google+ rocks #social\n",
+            "日本語のテキスト 한국어 ภาษาไทย 3.14 don't\r\n",
+            "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa "
+        };
+        while (source.length() < 100000) {
+            source.append(sentences[random().nextInt(sentences.length)]);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Tokenizer serial = factory.create();
+            serial.setReader(new StringReader(source.toString()));
+            CustomWordBoundaryStandardTokenizer parallel = (CustomWordBoundaryStandardTokenizer) factory.create();
+            parallel.setParallel(pool, 10000);
+            parallel.setReader(new CustomWordBoundaryTextReader(source));
+            assertSameTokens(serial, parallel);
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        // "parallel_threshold" applies to field values, which analyzers read from strings
+        CustomWordBoundaryIndicesAnalysis indicesAnalysis = nodeInjector.getInstance(CustomWordBoundaryIndicesAnalysis.class);
+        try {
+            ForkJoinPool nodePool = indicesAnalysis.parallelPool();
+            long steals = nodePool.getStealCount();
+            assertSameTokens(analysisService.analyzer("sequences_analyzer").tokenStream("field", source.toString()),
+                    analysisService.analyzer("parallel_analyzer").tokenStream("field", source.toString()));
+            assertThat(nodePool.getStealCount(), greaterThan(steals));
+        } finally {
+            indicesAnalysis.close();
+        }
+    }
+
+    @Test
+    public void testCheckpoints() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+        String[] fragments = {
+            "C++, C# and .NET: C#m C+ 1+1 C++x ", "@ericschmidt google+ rocks #social\n",
+            "日本語のテキスト 한국어 ภาษาไทย 3.14 don't\r\n", "C", "+", " ", "x", "3", "."
+        };
+        for (String name : new String[] {"sequences_standard_customwb", "alphanum_standard_customwb"}) {
+            TokenizerFactory factory = analysisService.tokenizer(name);
+            for (int i = 0; i < 50; i++) {
+                StringBuilder text = new StringBuilder();
+                while (text.length() < 1000) {
+                    text.append(fragments[random().nextInt(fragments.length)]);
+                }
+                CustomWordBoundaryStandardTokenizer tokenizer = (CustomWordBoundaryStandardTokenizer) factory.create();
+                tokenizer.setCheckpoints(random().nextInt(20));
+                tokenizer.setReader(new StringReader(text.toString()));
+                List<String> tokens = tokens(tokenizer);
+                List<CustomWordBoundaryCheckpoint> checkpoints = tokenizer.getCheckpoints();
+                assertThat(checkpoints.size(), greaterThan(0));
+
+                // edit the text, e.g. a keystroke
+                int changed = random().nextInt(text.length());
+                text.replace(changed, changed + random().nextInt(3), fragments[random().nextInt(fragments.length)]);
+                CustomWordBoundaryCheckpoint checkpoint = CustomWordBoundaryCheckpoint.lastBefore(checkpoints, changed);
+
+                Tokenizer expected = factory.create();
+                expected.setReader(new StringReader(text.toString()));
+                List<String> resumed = new ArrayList<>(tokens.subList(0, checkpoint == null ? 0 : checkpoint.tokenCount()));
+                tokenizer.setResumeFrom(checkpoint);
+                tokenizer.setReader(random().nextBoolean() ? new StringReader(text.toString()) : new CustomWordBoundaryTextReader(text));
+                resumed.addAll(tokens(tokenizer));
+                assertThat(resumed, equalTo(tokens(expected)));
+            }
+        }
+    }
+
+    @Test
+    public void testTokenCache() throws IOException {
+        Settings settings = createSettings();
+        Injector nodeInjector = createNodeInjector(settings);
+        CustomWordBoundaryTokenCache cache = nodeInjector.getInstance(CustomWordBoundaryIndicesAnalysis.class).tokenCache();
+        AnalysisService analysisService = createAnalysisService(nodeInjector, settings, "test");
+        TokenizerFactory cached = analysisService.tokenizer("cached_standard_customwb");
+        TokenizerFactory uncached = analysisService.tokenizer("my_standard_customwb");
+        Tokenizer tokenizer = cached.create();
+
+        // at most 2 entries
+        String[] queries = {"@ericschmidt google+ rocks #social", "@ericschmidt google+ rocks #social", "C++ #rocks ", " 42", "@ericschmidt google+ rocks #social"};
+        for (String query : queries) {
+            Tokenizer expected = uncached.create();
+            expected.setReader(new StringReader(query));
+            tokenizer.setReader(random().nextBoolean() ? new StringReader(query) : new CustomWordBoundaryTextReader(query));
+            assertSameTokens(expected, tokenizer);
+        }
+        assertThat(cache.hitCount(), equalTo(1L));
+        assertThat(cache.missCount(), equalTo(4L));
+        assertThat(cache.evictionCount(), equalTo(2L));
+        assertThat(cache.size(), equalTo(2));
+
+        // too long to be cached
+        StringBuilder text = new StringBuilder();
+        while (text.length() <= CustomWordBoundaryTokenCache.MAX_TEXT_LENGTH) {
+            text.append("@ericschmidt google+ rocks #social ");
+        }
+        Tokenizer expected = uncached.create();
+        expected.setReader(new StringReader(text.toString()));
+        tokenizer.setReader(new StringReader(text.toString()));
+        assertSameTokens(expected, tokenizer);
+        assertThat(cache.missCount(), equalTo(4L));
+        assertThat(cache.size(), equalTo(2));
+    }
+
+    @Test
+    public void testTokenCachePartialConsumption() throws IOException {
+        Settings settings = createSettings();
+        Injector nodeInjector = createNodeInjector(settings);
+        CustomWordBoundaryTokenCache cache = nodeInjector.getInstance(CustomWordBoundaryIndicesAnalysis.class).tokenCache();
+        AnalysisService analysisService = createAnalysisService(nodeInjector, settings, "test");
+        TokenizerFactory cached = analysisService.tokenizer("cached_standard_customwb");
+        TokenizerFactory uncached = analysisService.tokenizer("my_standard_customwb");
+        String query = "one two three";
+
+        // a consumer stopping after the first token, e.g. a token count limit
+        Tokenizer partial = cached.create();
+        partial.setReader(new StringReader(query));
+        partial.reset();
+        assertTrue(partial.incrementToken());
+        partial.end();
+        partial.close();
+        assertThat(cache.size(), equalTo(0));
+
+        for (int pass = 0; pass < 2; pass++) {
+            Tokenizer expected = uncached.create();
+            expected.setReader(new StringReader(query));
+            Tokenizer tokenizer = cached.create();
+            tokenizer.setReader(new StringReader(query));
+            assertSameTokens(expected, tokenizer);
+        }
+        assertThat(cache.size(), equalTo(1));
+        assertThat(cache.hitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void testScannerPool() throws IOException {
+        Settings settings = Settings.settingsBuilder().put(createSettings())
+                .put(CustomWordBoundaryIndicesAnalysis.SCANNER_POOL_SIZE_SETTING, 2).build();
+        Injector nodeInjector = createNodeInjector(settings);
+        CustomWordBoundaryScannerPool pool = nodeInjector.getInstance(CustomWordBoundaryIndicesAnalysis.class).scannerPool();
+
+        String source = "@ericschmidt google+ rocks #social";
+        String[] expected = new String[]{"@ericschmidt", "google+", "rocks", "#social"};
+        for (String index : new String[] {"first", "second"}) {
+            AnalysisService analysisService = createAnalysisService(nodeInjector, settings, index);
+            for (int i = 0; i < 2; i++) {
+                Tokenizer tokenizer = analysisService.tokenizer("my_standard_customwb").create();
+                tokenizer.setReader(new StringReader(source));
+                assertSimpleTSOutput(tokenizer, expected);
+                tokenizer.end();
+                tokenizer.close();
+            }
+        }
+        // the tokenizers of both indices took turns with a single scanner
+        assertThat(pool.createdCount(), equalTo(1L));
+        assertThat(pool.reusedCount(), equalTo(3L));
+        assertThat(pool.idleCount(), equalTo(1));
+    }
+
+    @Test
+    public void testNodeClose() throws Exception {
+        Settings settings = createSettings();
+        CustomWordBoundaryIndicesAnalysis indicesAnalysis = createNodeInjector(settings).getInstance(CustomWordBoundaryIndicesAnalysis.class);
+        indicesAnalysis.start();
+        ForkJoinPool pool = indicesAnalysis.parallelPool();
+        assertThat(indicesAnalysis.parallelPool(), sameInstance(pool));
+
+        // the plugin registers the node level state as a node service, closed with the node
+        assertTrue(new CustomWordBoundaryStandardTokenizerPlugin().nodeServices().contains(CustomWordBoundaryIndicesAnalysis.class));
+        indicesAnalysis.close();
+        assertTrue(pool.isTerminated());
+        try {
+            indicesAnalysis.parallelPool();
+            fail("parallel pool created after the node was closed");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("closed"));
+        }
+    }
+
+    @Test
+    public void testReloadableMappings() throws Exception {
+        Settings settings = Settings.settingsBuilder().put(createSettings())
+                .put("index.analysis.tokenizer.reloadable_standard_customwb.type", "standard_customwb")
+                .put("index.analysis.tokenizer.reloadable_standard_customwb.mappings_path", "customwb_mappings.txt")
+                .put("index.analysis.tokenizer.reloadable_standard_customwb.reloadable", true)
+                .build();
+        Path mappings = new Environment(settings).configFile().resolve("customwb_mappings.txt");
+        Files.write(mappings, "@=>EXNL\n".getBytes(StandardCharsets.UTF_8));
+
+        ThreadPool threadPool = new ThreadPool("testReloadableMappings");
+        try {
+            ResourceWatcherService resourceWatcherService = new ResourceWatcherService(settings, threadPool);
+            Injector nodeInjector = createNodeInjector(settings, resourceWatcherService);
+            AnalysisService analysisService = createAnalysisService(nodeInjector, settings, "test");
+            CustomWordBoundaryStandardTokenizerFactory factory =
+                    (CustomWordBoundaryStandardTokenizerFactory) analysisService.tokenizer("reloadable_standard_customwb");
+            Tokenizer tokenizer = factory.create();
+            String source = "@ericschmidt google+ rocks";
+            tokenizer.setReader(new StringReader(source));
+            assertSimpleTSOutput(tokenizer, new String[]{"@ericschmidt", "google", "rocks"});
+            tokenizer.end();
+            tokenizer.close();
+
+            Files.write(mappings, "# mentions are split again\n+=>EXNL\n".getBytes(StandardCharsets.UTF_8));
+            resourceWatcherService.notifyNow();
+            assertThat(factory.mappingsWatcher().reloadCount(), equalTo(1L));
+
+            // picked up by the same tokenizer on its next input
+            tokenizer.setReader(new StringReader(source));
+            assertSimpleTSOutput(tokenizer, new String[]{"ericschmidt", "google+", "rocks"});
+            tokenizer.end();
+            tokenizer.close();
+
+            // the file is watched once, until the last index using it is closed
+            CustomWordBoundaryIndicesAnalysis indicesAnalysis = nodeInjector.getInstance(CustomWordBoundaryIndicesAnalysis.class);
+            InternalIndicesLifecycle indicesLifecycle = (InternalIndicesLifecycle) nodeInjector.getInstance(IndicesLifecycle.class);
+            CustomWordBoundaryStandardTokenizerFactory other = (CustomWordBoundaryStandardTokenizerFactory)
+                    createAnalysisService(nodeInjector, settings, "other").tokenizer("reloadable_standard_customwb");
+            assertThat(other.mappingsWatcher(), sameInstance(factory.mappingsWatcher()));
+            assertThat(indicesAnalysis.mappingsWatcherCount(), equalTo(1));
+            indicesLifecycle.afterIndexClosed(new Index("test"), settings);
+            assertThat(indicesAnalysis.mappingsWatcherCount(), equalTo(1));
+            Files.write(mappings, "@=>EXNL\n".getBytes(StandardCharsets.UTF_8));
+            resourceWatcherService.notifyNow();
+            assertThat(other.mappingsWatcher().reloadCount(), equalTo(2L));
+
+            indicesLifecycle.afterIndexClosed(new Index("other"), settings);
+            assertThat(indicesAnalysis.mappingsWatcherCount(), equalTo(0));
+            Files.write(mappings, "+=>EXNL\n#=>EXNL\n".getBytes(StandardCharsets.UTF_8));
+            resourceWatcherService.notifyNow();
+            assertThat(other.mappingsWatcher().reloadCount(), equalTo(2L));
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testMappingsTable() throws IOException {
+        Settings settings = Settings.settingsBuilder().put(createSettings())
+                .put("index.analysis.tokenizer.compiled_standard_customwb.type", "standard_customwb")
+                .put("index.analysis.tokenizer.compiled_standard_customwb.mappings_table", "customwb_mappings.cwb")
+                .build();
+        Path config = new Environment(settings).configFile();
+        Path rules = config.resolve("customwb_mappings.txt");
+        // lines starting with # are comments, as in mappings_path
+        Files.write(rules, "@=>EXNL\n\\u0023=>EXNL\n+=>EXNL\n-=>EXNL\nC++=>L\n".getBytes(StandardCharsets.UTF_8));
+        CustomWordBoundaryMappingsCompiler.compile(rules, config.resolve("customwb_mappings.cwb"));
+
+        Injector nodeInjector = createNodeInjector(settings);
+        AnalysisService first = createAnalysisService(nodeInjector, settings, "first");
+        CustomWordBoundaryStandardTokenizerFactory compiled =
+                (CustomWordBoundaryStandardTokenizerFactory) first.tokenizer("compiled_standard_customwb");
+        CustomWordBoundaryStandardTokenizerFactory parsed =
+                (CustomWordBoundaryStandardTokenizerFactory) first.tokenizer("table_standard_customwb");
+        assertThat(compiled.charClassTable().fingerprint(), equalTo(parsed.charClassTable().fingerprint()));
+        String source = "@ericschmidt google+ rocks #social, C++ and C++x; a--b \uD83D\uDE00 日本語";
+        Tokenizer expected = parsed.create();
+        expected.setReader(new StringReader(source));
+        Tokenizer actual = compiled.create();
+        actual.setReader(new StringReader(source));
+        assertSameTokens(expected, actual);
+
+        // loaded once per node
+        AnalysisService second = createAnalysisService(nodeInjector, settings, "second");
+        assertThat(((CustomWordBoundaryStandardTokenizerFactory) second.tokenizer("compiled_standard_customwb")).charClassTable(),
+                sameInstance(compiled.charClassTable()));
+
+        Path corrupted = config.resolve("corrupted.cwb");
+        byte[] bytes = Files.readAllBytes(config.resolve("customwb_mappings.cwb"));
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(corrupted, bytes);
+        try {
+            CustomWordBoundaryCharClassTableFile.read(corrupted);
+            fail("corrupted table file was loaded");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("checksum mismatch"));
+        }
+
+        // crafted files, with a valid checksum
+        bytes = Files.readAllBytes(config.resolve("customwb_mappings.cwb"));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int fingerprintLength = buffer.getInt(16);
+        int lengths = 16 + 4 + 2 * fingerprintLength;
+        int blocks = lengths + 3 * 4;
+        int pages = blocks + 2 * buffer.getInt(lengths);
+        int sequences = pages + 2 * buffer.getInt(lengths + 4);
+
+        byte[] forged = bytes.clone();
+        ByteBuffer.wrap(forged).putChar(20, buffer.getChar(20) == '0' ? '1' : '0');
+        assertInvalidTableFile(config, forged, "does not match its content");
+
+        byte[] invalidClass = bytes.clone();
+        // '@', in the first page, mapped to a class that is not a word boundary class
+        ByteBuffer.wrap(invalidClass).putChar(pages + 2 * ((buffer.getChar(blocks) << 8) + '@'), (char) 2);
+        assertInvalidTableFile(config, invalidClass, "Invalid word boundary class [2]");
+
+        byte[] invalidType = bytes.clone();
+        ByteBuffer.wrap(invalidType).putInt(sequences, 42);
+        assertInvalidTableFile(config, invalidType, "Invalid token type [42]");
+    }
+
+    /** writes the given table file with a valid checksum, and checks that it is rejected */
+    private static void assertInvalidTableFile(Path config, byte[] bytes, String message) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 16, bytes.length - 16 - 4);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 4, (int) crc.getValue());
+        Path file = config.resolve("invalid.cwb");
+        Files.write(file, bytes);
+        try {
+            CustomWordBoundaryCharClassTableFile.read(file);
+            fail("invalid table file was loaded");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString(message));
+        }
+    }
+
+    /** returns the tokens of the given stream, then its final state */
+    private static List<String> tokens(TokenStream stream) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        stream.reset();
+        while (stream.incrementToken()) {
+            tokens.add(stream.reflectAsString(false));
+        }
+        stream.end();
+        tokens.add(stream.reflectAsString(false));
+        stream.close();
+        return tokens;
+    }
+
+    private static void assertSameTokens(TokenStream expected, TokenStream actual) throws IOException {
+        expected.reset();
+        actual.reset();
+        while (expected.incrementToken()) {
+            assertTrue("missing token " + expected, actual.incrementToken());
+            assertThat(actual.reflectAsString(false), equalTo(expected.reflectAsString(false)));
+        }
+        assertFalse("extra token " + actual, actual.incrementToken());
+        expected.end();
+        actual.end();
+        assertThat(actual.reflectAsString(false), equalTo(expected.reflectAsString(false)));
+        expected.close();
+        actual.close();
+    }
+
     public AnalysisService createAnalysisService() throws IOException {
+        Settings settings = createSettings();
+        return createAnalysisService(createNodeInjector(settings), settings, "test");
+    }
+
+    private Settings createSettings() throws IOException {
         Path home = createTempDir();
         Path config = home.resolve("config");
         Files.createDirectory(config);
 
         String json = "/org/elasticsearch/index/analysis/standardcustomwb_analysis.json";
-        Settings settings = Settings.settingsBuilder()
+        return Settings.settingsBuilder()
                 .put("path.home", home)
                 .loadFromStream(json, getClass().getResourceAsStream(json))
                 .put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
                 .build();
+    }
 
-        Index index = new Index("test");
+    private Injector createNodeInjector(Settings settings) {
+        return createNodeInjector(settings, null);
+    }
+
+    /**
+     * @param resourceWatcherService watches the reloadable mappings, or null if the test has none
+     */
+    private Injector createNodeInjector(final Settings settings, final ResourceWatcherService resourceWatcherService) {
+        ModulesBuilder modules = new ModulesBuilder().add(new SettingsModule(settings),
+                new EnvironmentModule(new Environment(settings)), new AbstractModule() {
+                    @Override
+                    protected void configure() {
+                        // bound by the IndicesModule on a real node
+                        bind(IndicesAnalysisService.class).asEagerSingleton();
+                        if (resourceWatcherService != null) {
+                            // bound by the ResourceWatcherModule on a real node
+                            bind(ResourceWatcherService.class).toInstance(resourceWatcherService);
+                            // bound by the IndicesModule on a real node
+                            bind(IndicesLifecycle.class).toInstance(new InternalIndicesLifecycle(settings));
+                        }
+                    }
+                });
+        for (Module module : new CustomWordBoundaryStandardTokenizerPlugin().nodeModules()) {
+            modules.add(module);
+        }
+        return modules.createInjector();
+    }
 
-        Injector parentInjector = new ModulesBuilder().add(new SettingsModule(settings),
-                new EnvironmentModule(new Environment(settings)))
-                .createInjector();
+    private AnalysisService createAnalysisService(Injector parentInjector, Settings settings, String indexName) {
+        Index index = new Index(indexName);
 
         AnalysisModule analysisModule = new AnalysisModule(settings, parentInjector.getInstance(IndicesAnalysisService.class));
         new CustomWordBoundaryStandardTokenizerPlugin().onModule(analysisModule);